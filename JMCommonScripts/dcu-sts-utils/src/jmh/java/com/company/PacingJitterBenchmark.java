@@ -0,0 +1,69 @@
+package com.company;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Wake-up jitter of a single sub-second pacing wait. Each invocation waits
+ * {@code pacing} from its own start, so the sampled time is the pacing plus
+ * how late the thread woke; JMH's percentiles minus the pacing are the jitter
+ * distribution. Compared:
+ *
+ * <ul>
+ *     <li>{@code sleep} - Thread.sleep for the pacing, rounded to the ms (the old wait)</li>
+ *     <li>{@code park} - {@link PacingScheduler} without a spin tail</li>
+ *     <li>{@code spin} - {@link PacingScheduler} busy-waiting the last {@code spinMicros}</li>
+ * </ul>
+ *
+ * <pre>
+ *     gradle jmh -Pjmh.includes=PacingJitterBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+public class PacingJitterBenchmark {
+
+    @Param({ "5ms", "50ms" })
+    public String pacing;
+
+    @Param({ "sleep", "park", "spin" })
+    public String waiter;
+
+    @Param({ "200" })
+    public long spinMicros;
+
+    private long pacingNanos;
+    private long spinNanos;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        pacingNanos = PacingSchedule.parseNanos(pacing);
+        spinNanos = "spin".equals(waiter) ? TimeUnit.MICROSECONDS.toNanos(spinMicros) : 0;
+        PacingScheduler.logStats();
+    }
+
+    @Benchmark
+    public void pace() throws InterruptedException {
+        if ("sleep".equals(waiter)) {
+            Thread.sleep(TimeUnit.NANOSECONDS.toMillis(pacingNanos));
+        } else {
+            PacingScheduler.awaitNanos(System.nanoTime() + pacingNanos, spinNanos);
+        }
+    }
+}
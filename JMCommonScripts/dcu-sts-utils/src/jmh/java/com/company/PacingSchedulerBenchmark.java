@@ -0,0 +1,154 @@
+package com.company;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * CPU used and wake-up accuracy of the pacing wait with many paced threads.
+ * One invocation starts {@code threads} threads that each pace
+ * {@code iterations} iterations of {@code pacingMillis} (start times spread
+ * over the first pacing interval, as after a ramp-up) and waits for all of
+ * them. Compared:
+ *
+ * <ul>
+ *     <li>{@code sleep} - Thread.sleep for the remaining time (the old non-GUI wait)</li>
+ *     <li>{@code chunked} - Thread.sleep in 100 ms chunks (the old GUI wait)</li>
+ *     <li>{@code wheel} - {@link PacingScheduler}</li>
+ * </ul>
+ *
+ * Besides the run time, the secondary results are the process CPU time of an
+ * invocation and the mean and maximum lateness of a wake-up against its
+ * deadline, in ms. JMH adds them up over the measurement iterations, so divide
+ * by Cnt. Results depend heavily on the core count of the host.
+ *
+ * <pre>
+ *     gradle jmh -Pjmh.includes=PacingSchedulerBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+public class PacingSchedulerBenchmark {
+
+    @Param({ "10000" })
+    public int threads;
+
+    @Param({ "sleep", "chunked", "wheel" })
+    public String waiter;
+
+    @Param({ "5" })
+    public int iterations;
+
+    @Param({ "1000" })
+    public long pacingMillis;
+
+    /**
+     * Secondary results, reported per invocation
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Metrics {
+        public double cpuMillis;
+        public double meanLateMillis;
+        public double maxLateMillis;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            cpuMillis = 0;
+            meanLateMillis = 0;
+            maxLateMillis = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        // Initialise the scheduler (and its logger) here, not on a small-stack paced thread
+        PacingScheduler.logStats();
+    }
+
+    @Benchmark
+    public void pace(Metrics metrics) throws InterruptedException {
+        LongAdder lateNanos = new LongAdder();
+        LongAccumulator maxLateNanos = new LongAccumulator(Math::max, 0);
+        CountDownLatch go = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        long[] start = new long[1];
+
+        for (int i = 0; i < threads; i++) {
+            long offset = pacingMillis * i / threads;
+            // Small stacks: 10,000 JMeter-like threads that only wait
+            Thread thread = new Thread(null, () -> {
+                try {
+                    go.await();
+                    for (int iteration = 0; iteration < iterations; iteration++) {
+                        long deadline = start[0] + offset + iteration * pacingMillis;
+                        await(deadline);
+                        long late = TimeUnit.MILLISECONDS.toNanos(Math.max(0, System.currentTimeMillis() - deadline));
+                        lateNanos.add(late);
+                        maxLateNanos.accumulate(late);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            }, "paced-" + i, 128 * 1024);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        // Thread creation is not part of the measured CPU time
+        long cpuBefore = processCpuNanos();
+        start[0] = System.currentTimeMillis() + 100;
+        go.countDown();
+        done.await();
+
+        metrics.cpuMillis += (processCpuNanos() - cpuBefore) / 1e6;
+        metrics.meanLateMillis += lateNanos.sum() / 1e6 / ((long) threads * iterations);
+        metrics.maxLateMillis += maxLateNanos.get() / 1e6;
+    }
+
+    private void await(long deadline) throws InterruptedException {
+        switch (waiter) {
+            case "wheel":
+                long remainingNanos = TimeUnit.MILLISECONDS.toNanos(deadline - System.currentTimeMillis());
+                PacingScheduler.awaitNanos(System.nanoTime() + remainingNanos, 0);
+                break;
+            case "chunked":
+                for (long remaining; (remaining = deadline - System.currentTimeMillis()) > 0; ) {
+                    Thread.sleep(Math.min(100, remaining));
+                }
+                break;
+            default:
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining > 0) {
+                    Thread.sleep(remaining);
+                }
+        }
+    }
+
+    private static long processCpuNanos() {
+        return ((com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean())
+            .getProcessCpuTime();
+    }
+}
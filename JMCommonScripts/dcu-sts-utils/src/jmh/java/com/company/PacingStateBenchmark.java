@@ -0,0 +1,112 @@
+package com.company;
+
+import org.apache.jmeter.threads.JMeterContext;
+import org.apache.jmeter.threads.JMeterContextService;
+import org.apache.jmeter.threads.JMeterVariables;
+import org.apache.jmeter.threads.ThreadGroup;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-iteration cost of the pacing bookkeeping, without the wait itself (the
+ * pacing is 0, so it has always elapsed): the previous path (boxed
+ * ThreadLocals, start_time and pacing round-tripped through String variables,
+ * a shared Random, the debug message formatted every iteration) against
+ * PacingConfigJMeter on {@link PacingState}.
+ *
+ * <pre>
+ *     gradle jmh -Pjmh.includes=PacingStateBenchmark -Pjmh.profilers=gc
+ * </pre>
+ *
+ * gc.alloc.rate.norm is the allocation per iteration. What remains on the
+ * PacingState path are the start_time, intended_start and schedule_lag
+ * values, which scripts read as Strings.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PacingStateBenchmark {
+
+    /** fixed: Min Pacing only; range: Min and Max, picked at random */
+    @Param({ "fixed", "range" })
+    public String pacing;
+
+    private static final ThreadLocal<Long> iterationStartTime = new ThreadLocal<>();
+    private static final ThreadLocal<Double> currentPacing = new ThreadLocal<>();
+    private static final ThreadLocal<Boolean> firstIteration = new ThreadLocal<>();
+    private static final Random random = new Random();
+
+    private JMeterContext ctx;
+    private JMeterVariables vars;
+    private PacingConfigJMeter element;
+    private String maxPacing;
+
+    @Setup
+    public void setUp() {
+        ThreadGroup threadGroup = new ThreadGroup();
+        threadGroup.setName("Benchmark");
+        threadGroup.setNumThreads(1);
+        vars = new JMeterVariables();
+        ctx = JMeterContextService.getContext();
+        ctx.setVariables(vars);
+        ctx.setThreadGroup(threadGroup);
+        ctx.setThreadNum(0);
+
+        maxPacing = "range".equals(pacing) ? "0" : "";
+        element = new PacingConfigJMeter();
+        element.setMinPacing("0");
+        element.setMaxPacing(maxPacing);
+        // First iteration (no wait) out of the way
+        element.iterationStart(null);
+    }
+
+    @Benchmark
+    public void previousPath(Blackhole bh) {
+        int iterationNum = vars.getIteration();
+        if (firstIteration.get() == null) {
+            firstIteration.set(true);
+        } else {
+            // The previous iteration's figures, as the group_init path read them back
+            long prevStart = Long.parseLong(vars.get("start_time"));
+            double prevPacing = Double.parseDouble(vars.get("pacing"));
+            Long startTime = iterationStartTime.get();
+            Double pacingValue = currentPacing.get();
+            long elapsed = System.currentTimeMillis() - (startTime != null ? startTime : prevStart);
+            long pacingMillis = (long) ((pacingValue != null ? pacingValue : prevPacing) * 1000);
+            String debugMsg = String.format("TG:%s:T%d:I%d Elapsed:%.3fs Pacing:%.3fs",
+                ctx.getThreadGroup().getName(), ctx.getThreadNum(), iterationNum, elapsed / 1000.0, pacingMillis / 1000.0);
+            if (pacingMillis - elapsed > 0) {
+                debugMsg += String.format(" Waiting:%.3fs", (pacingMillis - elapsed) / 1000.0);
+            } else {
+                debugMsg += " No wait needed";
+            }
+            bh.consume(debugMsg);
+        }
+
+        double pacingValue = maxPacing.isEmpty() ? Double.parseDouble("0")
+            : random.nextInt(Integer.parseInt(maxPacing) - Integer.parseInt("0") + 1);
+        currentPacing.set(pacingValue);
+        vars.put("pacing", String.valueOf(pacingValue));
+
+        long startNanos = System.nanoTime();
+        long startTimeMillis = System.currentTimeMillis();
+        iterationStartTime.set(startTimeMillis);
+        vars.put("start_time", String.valueOf(startTimeMillis));
+        PacingSchedule.started(vars, startNanos, startNanos, startTimeMillis);
+    }
+
+    @Benchmark
+    public void pacingState() {
+        element.iterationStart(null);
+    }
+}
@@ -0,0 +1,140 @@
+package com.company;
+
+import org.apache.jmeter.threads.JMeterVariables;
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-sample cost of turning the STS Configuration table into STS calls,
+ * without the network round trip: the previous path (split the table, compile
+ * the variable pattern, derive the filename prefix on every call) against the
+ * compiled {@link STSOperationPlan}.
+ *
+ * <pre>
+ *     gradle jmh -Pjmh.includes=STSOperationPlanBenchmark
+ * </pre>
+ *
+ * Add {@code -Pjmh.profilers=gc} to compare allocation per sample.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class STSOperationPlanBenchmark {
+
+    private static final Logger log = LoggingManager.getLoggerForClass();
+
+    /** Six reads, two adds that use the values read */
+    private static final String OPERATIONS =
+        "applications.csv;KEEP;APP_ID,Passport_Number;Get application"
+        + "|users.csv;DEL;USER_ID,Name,Email;Consume user"
+        + "|accounts.csv;KEEP;ACCOUNT_ID,SORT_CODE"
+        + "|cards.csv;KEEP;CARD_NUMBER,EXPIRY"
+        + "|addresses.csv;KEEP;POSTCODE,LINE1"
+        + "|products.csv;KEEP;PRODUCT_ID"
+        + "|audit.csv;ADDLAST;${USER_ID},${APP_ID},submitted;Audit"
+        + "|users.csv;ADDLAST;${USER_ID},${Name},${Email};Return user";
+
+    private Properties props;
+    private JMeterVariables vars;
+    private STSOperationPlan plan;
+
+    @Setup
+    public void setUp() {
+        props = new Properties();
+        props.setProperty("GIT_REPO_NAME", "jm_benchmark.git");
+        vars = new JMeterVariables();
+        vars.put("USER_ID", "U1001");
+        vars.put("APP_ID", "A2002");
+        vars.put("Name", "Jane Smith");
+        vars.put("Email", "jane@example.com");
+        plan = STSOperationPlan.compile(OPERATIONS, props, log);
+    }
+
+    @Benchmark
+    public void previousPath(Blackhole bh) {
+        for (String operation : OPERATIONS.split("\\|")) {
+            operation = operation.trim();
+            if (operation.isEmpty()) continue;
+            String[] parts = operation.contains(";") ? operation.split(";", 4) : operation.split(",", 4);
+            if (parts.length < 3) continue;
+
+            String filename = parts[0].trim();
+            String action = parts[1].trim();
+            String variablesValues = parts[2].trim();
+            if (filename.isEmpty() || variablesValues.isEmpty()) continue;
+
+            String resolved = previousResolve(variablesValues);
+            String command = action + "," + filename + "," + resolved;
+
+            // What STS.exec then did with the command
+            String[] params = command.split(",");
+            String formatted = previousFormatFilename(params[1].trim());
+            String[] rest = new String[params.length - 2];
+            System.arraycopy(params, 2, rest, 0, params.length - 2);
+            bh.consume(params[0].trim().toUpperCase());
+            bh.consume(formatted);
+            bh.consume(rest);
+        }
+    }
+
+    @Benchmark
+    public void compiledPlan(Blackhole bh) {
+        STSOperationPlan current = plan;
+        if (!current.isCompiledFrom(OPERATIONS, props.getProperty("GIT_REPO_NAME"))) {
+            throw new IllegalStateException("plan out of date");
+        }
+        for (int i = 0; i < current.size(); i++) {
+            STSOperationPlan.Step step = current.step(i);
+            bh.consume(step.action);
+            bh.consume(step.formattedFilename);
+            bh.consume(step.args(vars, log));
+        }
+    }
+
+    /** STSConfigJMeter.resolveJMeterVariables before the plan was introduced */
+    private String previousResolve(String input) {
+        String result = input;
+        java.util.regex.Pattern pattern = java.util.regex.Pattern.compile("\\$\\{([^}]+)\\}");
+        java.util.regex.Matcher matcher = pattern.matcher(input);
+        while (matcher.find()) {
+            String variableName = matcher.group(1);
+            String variableValue = vars.get(variableName);
+            if (variableValue != null) {
+                result = result.replace("${" + variableName + "}", variableValue);
+                log.debug("Resolved variable ${" + variableName + "} → " + variableValue);
+            }
+        }
+        return result;
+    }
+
+    /** STS.formatFilename before results were cached per repository name */
+    private String previousFormatFilename(String filename) {
+        String repoName = props.getProperty("GIT_REPO_NAME");
+        if (repoName.toLowerCase().endsWith(".git")) {
+            repoName = repoName.substring(0, repoName.length() - 4);
+        }
+        if (repoName.toLowerCase().startsWith("jm_")) {
+            repoName = repoName.substring(3);
+        }
+        String prefix = repoName.toUpperCase();
+        log.debug("Repository prefix for filenames: " + prefix);
+        String prefixPattern = "(?i)^" + prefix + "_";
+        if (filename.matches(prefixPattern + ".*")) {
+            return filename.replaceFirst(prefixPattern, prefix + "_");
+        }
+        String newFilename = prefix + "_" + filename;
+        log.info("Added repository prefix to filename: " + filename + " -> " + newFilename);
+        return newFilename;
+    }
+}
@@ -0,0 +1,135 @@
+package com.company.bench;
+
+import com.company.server.STSServer;
+import org.apache.http.client.entity.UrlEncodedFormEntity;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.message.BasicNameValuePair;
+import org.apache.http.util.EntityUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Requests per second of the NIO STS server against an existing Simple Table
+ * Server as baseline. Each benchmark thread is one JMeter thread calling STS.
+ *
+ * <pre>
+ *     # NIO server only (started in-process)
+ *     gradle jmh -Pjmh.includes=STSServerBenchmark
+ *
+ *     # compare with the current server started by bin/simple-table-server.sh
+ *     gradle jmh -Pjmh.includes=STSServerBenchmark -Pjmh.target=embedded,localhost:9191
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(32)
+public class STSServerBenchmark {
+
+    private static final String FILENAME = "BENCH_rows.csv";
+    private static final int ROWS = 1000;
+
+    /** "embedded" starts the NIO server; anything else is host:port of a running server */
+    @Param({ "embedded" })
+    public String target;
+
+    private STSServer server;
+    private Path dataset;
+    private CloseableHttpClient client;
+    private String baseUrl;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        String host = target;
+        if ("embedded".equals(target)) {
+            dataset = Files.createTempDirectory("sts-bench");
+            server = new STSServer(0, dataset, Runtime.getRuntime().availableProcessors());
+            server.start();
+            host = "localhost:" + server.getPort();
+        }
+        baseUrl = "http://" + host + "/sts/";
+
+        PoolingHttpClientConnectionManager pool = new PoolingHttpClientConnectionManager();
+        pool.setMaxTotal(256);
+        pool.setDefaultMaxPerRoute(256);
+        client = HttpClients.custom().setConnectionManager(pool).build();
+
+        // Same dataset on both servers, created through the API
+        for (int i = 0; i < ROWS; i++) {
+            add("LAST", "row" + i + ",value" + i);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        client.close();
+        if (server != null) {
+            server.stop();
+            try (var files = Files.list(dataset)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    Files.deleteIfExists(file);
+                }
+            }
+            Files.deleteIfExists(dataset);
+        }
+    }
+
+    @Benchmark
+    public String readKeep() throws IOException {
+        return get(baseUrl + "READ?READ_MODE=FIRST&KEEP=TRUE&FILENAME=" + FILENAME);
+    }
+
+    @Benchmark
+    public String delThenAddLast() throws IOException {
+        // Consume a row and put it back, as producer/consumer journeys do
+        String body = get(baseUrl + "READ?READ_MODE=FIRST&KEEP=FALSE&FILENAME=" + FILENAME);
+        int start = body.indexOf("<body>") + 6;
+        int end = body.indexOf("</body>");
+        if (start > 5 && end > start && !body.contains("<title>KO</title>")) {
+            add("LAST", body.substring(start, end).trim());
+        }
+        return body;
+    }
+
+    @Benchmark
+    public String length() throws IOException {
+        return get(baseUrl + "LENGTH?FILENAME=" + FILENAME);
+    }
+
+    private String get(String url) throws IOException {
+        try (CloseableHttpResponse response = client.execute(new HttpGet(url))) {
+            return EntityUtils.toString(response.getEntity());
+        }
+    }
+
+    private void add(String mode, String line) throws IOException {
+        HttpPost post = new HttpPost(baseUrl + "ADD");
+        post.setEntity(new UrlEncodedFormEntity(Arrays.asList(
+            new BasicNameValuePair("ADD_MODE", mode),
+            new BasicNameValuePair("FILENAME", FILENAME),
+            new BasicNameValuePair("LINE", line))));
+        try (CloseableHttpResponse response = client.execute(post)) {
+            EntityUtils.consume(response.getEntity());
+        }
+    }
+}
@@ -13,7 +13,7 @@ find com/ -name "*.class" -delete
 
 # Compile Java sources with Java 11 for compatibility
 echo "Compiling Java sources with Java 11..."
-find com/company -name "*.java" -exec /usr/lib/jvm/java-11-openjdk-amd64/bin/javac -cp "../../lib/ext/*:../../lib/*" {} +
+find com/company -name "*.java" -exec /usr/lib/jvm/java-11-openjdk-amd64/bin/javac -encoding UTF-8 -cp "../../lib/ext/*:../../lib/*" {} +
 
 # Create JAR including the icon resources in JMeter standard structure
 echo "Creating JAR file..."
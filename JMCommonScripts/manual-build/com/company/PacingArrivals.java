@@ -0,0 +1,121 @@
+package com.company;
+
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Shared arrival clock of a thread group in arrival-rate (open model) mode.
+ *
+ * With pacing each thread waits between its own iterations, so when the
+ * system under test slows down the iterations slow down with it. With an
+ * arrival rate the thread group's iterations start on one clock instead:
+ * arrivals are {@code rate} per second, evenly spaced (uniform) or with
+ * exponential gaps (Poisson, as independent users arrive). A thread that
+ * finishes an iteration takes the next arrival no other thread has taken and
+ * waits for it.
+ *
+ * An arrival that came due while every thread was still busy is dropped,
+ * not started late: the load stays at the target rate instead of bursting to
+ * catch up, and the drops are counted per thread group and logged at test
+ * end. A thread group that drops arrivals needs more threads (about
+ * rate x iteration time). Arrivals less than {@code pacing.arrival.grace.ms}
+ * (default 10) overdue still start, to allow for wake-up jitter.
+ */
+public final class PacingArrivals {
+
+    private static final Logger log = LoggingManager.getLoggerForClass();
+
+    public static final String GRACE = "pacing.arrival.grace.ms";
+
+    private static final Map<String, PacingArrivals> clocks = new ConcurrentHashMap<>();
+
+    private final String threadGroup;
+    private final double rate;
+    private final boolean poisson;
+    /** Due time of the next arrival not yet taken (System.nanoTime), once the first thread has asked */
+    private double nextArrival;
+    private boolean running;
+
+    private final LongAdder started = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+
+    private PacingArrivals(String threadGroup, double rate, boolean poisson) {
+        this.threadGroup = threadGroup;
+        this.rate = rate;
+        this.poisson = poisson;
+    }
+
+    /**
+     * The arrival clock of a thread group; the first caller's rate and
+     * distribution apply until the test ends
+     */
+    public static PacingArrivals forThreadGroup(String threadGroup, double rate, boolean poisson) {
+        PacingArrivals clock = clocks.get(threadGroup);
+        if (clock != null) {
+            return clock;
+        }
+        return clocks.computeIfAbsent(threadGroup, name -> {
+            log.info("Pacing: thread group " + name + " arrival rate " + rate + "/s ("
+                + (poisson ? "Poisson" : "uniform") + ")");
+            return new PacingArrivals(name, rate, poisson);
+        });
+    }
+
+    /**
+     * Take the next arrival. Arrivals more than {@code graceNanos} overdue
+     * had no free thread and are dropped first.
+     *
+     * @return the due time of the arrival (System.nanoTime)
+     */
+    public long claim(long nowNanos, long graceNanos) {
+        double arrival;
+        synchronized (this) {
+            if (!running) {
+                // The first thread to ask starts the clock
+                nextArrival = nowNanos;
+                running = true;
+            }
+            while (nextArrival < nowNanos - graceNanos) {
+                dropped.increment();
+                nextArrival += gapNanos();
+            }
+            arrival = nextArrival;
+            nextArrival += gapNanos();
+        }
+        started.increment();
+        return (long) Math.ceil(arrival);
+    }
+
+    /**
+     * Arrivals dropped so far
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * Log each thread group's started and dropped arrivals and forget the clocks (test start and end)
+     */
+    public static void logAndClear() {
+        for (PacingArrivals clock : clocks.values()) {
+            long total = clock.started.sum() + clock.dropped.sum();
+            log.info("Pacing: thread group " + clock.threadGroup + " at " + clock.rate + "/s: "
+                + clock.started.sum() + " arrivals started, " + clock.dropped.sum() + " dropped ("
+                + (total == 0 ? 0 : clock.dropped.sum() * 100 / total) + "%)");
+        }
+        clocks.clear();
+    }
+
+    private double gapNanos() {
+        if (!poisson) {
+            return 1e9 / rate;
+        }
+        // Exponential gap: 1 - U is in (0, 1], so the log is finite
+        return -Math.log(1.0 - ThreadLocalRandom.current().nextDouble()) * 1e9 / rate;
+    }
+}
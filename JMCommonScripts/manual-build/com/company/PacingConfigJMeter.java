@@ -1,22 +1,23 @@
 package com.company;
 
+import com.company.jfr.PacingWaitEvent;
 import org.apache.jmeter.config.ConfigTestElement;
 import org.apache.jmeter.engine.event.LoopIterationEvent;
 import org.apache.jmeter.engine.event.LoopIterationListener;
 import org.apache.jmeter.testelement.TestStateListener;
+import org.apache.jmeter.threads.JMeterContext;
 import org.apache.jmeter.threads.JMeterContextService;
 import org.apache.jmeter.threads.JMeterVariables;
 import org.apache.jmeter.threads.AbstractThreadGroup;
 import org.apache.jmeter.control.LoopController;
 import org.apache.jmeter.control.Controller;
 import org.apache.jmeter.testelement.property.TestElementProperty;
-import java.time.LocalDateTime;
-import java.time.ZoneId;
-import java.util.Random;
+import java.util.concurrent.TimeUnit;
 
 /**
  * JMeter Test Element for Pacing Configuration
  * Handles both fixed pacing (single value) and random pacing (min-max range)
+ * or, with an arrival rate set, starts iterations at a target rate for the whole thread group
  * Uses post-iteration pacing approach to eliminate final iteration hanging
  * 
  * NEW APPROACH: Calculate pacing at start, apply wait at end of iteration
@@ -29,12 +30,15 @@ public class PacingConfigJMeter extends ConfigTestElement implements LoopIterati
     public static final String PACING_MIN = "PacingConfig.min";
     public static final String PACING_MAX = "PacingConfig.max";
     public static final String PACING_ENABLED = "PacingConfig.enabled";
+    public static final String ARRIVAL_RATE = "PacingConfig.arrivalRate";
+    public static final String ARRIVAL_DISTRIBUTION = "PacingConfig.arrivalDistribution";
     
-    // Thread-local storage for pacing state
-    private static final ThreadLocal<Long> iterationStartTime = new ThreadLocal<>();
-    private static final ThreadLocal<Double> currentPacing = new ThreadLocal<>();
-    private static final ThreadLocal<Boolean> firstIteration = new ThreadLocal<>();
-    private static final Random random = new Random();
+    public static final String DISTRIBUTION_POISSON = "poisson";
+    public static final String DISTRIBUTION_UNIFORM = "uniform";
+    
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(PacingConfigJMeter.class);
+    
+    // Per-thread pacing state (System.nanoTime values, immune to wall-clock steps) is kept in PacingState
     
     public PacingConfigJMeter() {
         super();
@@ -67,6 +71,32 @@ public class PacingConfigJMeter extends ConfigTestElement implements LoopIterati
         return getPropertyAsBoolean(PACING_ENABLED, true);
     }
     
+    /**
+     * Target iterations per second for the whole thread group; empty for pacing per thread
+     */
+    public void setArrivalRate(String arrivalRate) {
+        setProperty(ARRIVAL_RATE, arrivalRate);
+    }
+    
+    public String getArrivalRate() {
+        return getPropertyAsString(ARRIVAL_RATE, "");
+    }
+    
+    public void setArrivalDistribution(String distribution) {
+        setProperty(ARRIVAL_DISTRIBUTION, distribution);
+    }
+    
+    public String getArrivalDistribution() {
+        return getPropertyAsString(ARRIVAL_DISTRIBUTION, DISTRIBUTION_POISSON);
+    }
+    
+    /**
+     * Whether iterations start at the thread group's arrival rate instead of per-thread pacing
+     */
+    public boolean isArrivalRateMode() {
+        return !getArrivalRate().trim().isEmpty();
+    }
+    
     /**
      * Validate the pacing configuration
      */
@@ -75,20 +105,32 @@ public class PacingConfigJMeter extends ConfigTestElement implements LoopIterati
             return new ValidationResult(true, "Pacing is disabled");
         }
         
+        if (isArrivalRateMode()) {
+            try {
+                double rate = Double.parseDouble(getArrivalRate().trim());
+                if (rate <= 0) {
+                    return new ValidationResult(false, "Arrival rate must be greater than 0");
+                }
+            } catch (NumberFormatException e) {
+                return new ValidationResult(false, "Arrival rate must be a number (iterations per second)");
+            }
+            return new ValidationResult(true, "Configuration is valid");
+        }
+        
         String minStr = getMinPacing().trim();
         if (minStr.isEmpty()) {
             return new ValidationResult(false, "Minimum pacing value is required");
         }
         
         try {
-            int min = Integer.parseInt(minStr);
+            long min = PacingSchedule.parseNanos(minStr);
             if (min <= 0) {
                 return new ValidationResult(false, "Minimum pacing must be greater than 0");
             }
             
             String maxStr = getMaxPacing().trim();
             if (!maxStr.isEmpty()) {
-                int max = Integer.parseInt(maxStr);
+                long max = PacingSchedule.parseNanos(maxStr);
                 if (max <= 0) {
                     return new ValidationResult(false, "Maximum pacing must be greater than 0");
                 }
@@ -98,7 +140,7 @@ public class PacingConfigJMeter extends ConfigTestElement implements LoopIterati
             }
             
         } catch (NumberFormatException e) {
-            return new ValidationResult(false, "Pacing values must be valid integers");
+            return new ValidationResult(false, "Pacing values must be seconds (e.g. 60, 0.25) or have a unit (e.g. 250ms)");
         }
         
         return new ValidationResult(true, "Configuration is valid");
@@ -115,9 +157,8 @@ public class PacingConfigJMeter extends ConfigTestElement implements LoopIterati
     @Override
     public void testStarted(String host) {
         // Clear any previous state
-        iterationStartTime.remove();
-        currentPacing.remove();
-        firstIteration.remove();
+        PacingState.clear();
+        PacingArrivals.logAndClear();
     }
     
     @Override
@@ -127,10 +168,10 @@ public class PacingConfigJMeter extends ConfigTestElement implements LoopIterati
     
     @Override
     public void testEnded(String host) {
-        // Clean up thread-local storage
-        iterationStartTime.remove();
-        currentPacing.remove();
-        firstIteration.remove();
+        // Drop the per-thread pacing state
+        PacingState.clear();
+        PacingArrivals.logAndClear();
+        PacingScheduler.logStats();
     }
     
     /**
@@ -145,182 +186,175 @@ public class PacingConfigJMeter extends ConfigTestElement implements LoopIterati
         
         try {
             // Get current JMeter context
-            JMeterVariables vars = JMeterContextService.getContext().getVariables();
+            JMeterContext ctx = JMeterContextService.getContext();
+            JMeterVariables vars = ctx.getVariables();
             int iterationNum = vars.getIteration();
+            PacingState state = PacingState.of(ctx.getThreadGroup(), ctx.getThreadNum());
+            
+            if (!state.isStarted()) {
+                PacingSchedule.sampleLastIteration(ctx, state);
+            }
+            
+            if (isArrivalRateMode()) {
+                waitForArrival(ctx, state, iterationNum);
+                return;
+            }
             
             // Check if this is the first iteration for this thread
-            Boolean isFirst = firstIteration.get();
-            if (isFirst == null) {
+            long intendedStart;
+            long due = -1;
+            if (!state.isStarted()) {
                 // First time this thread is running
-                firstIteration.set(true);
-                org.slf4j.LoggerFactory.getLogger(this.getClass())
-                    .info(">>>>> First iteration for thread - no pacing wait applied");
+                log.info(">>>>> First iteration for thread - no pacing wait applied");
+                intendedStart = -1;
             } else {
                 // Handle pacing wait from PREVIOUS iteration
-                handlePacingWaitFromPreviousIteration(vars, iterationNum);
+                intendedStart = handlePacingWaitFromPreviousIteration(ctx, state, iterationNum);
+                if (intendedStart >= 0) {
+                    // What the wait ran to, before the previous pacing is replaced
+                    due = state.getDeadlineNanos();
+                }
             }
             
             // Calculate and set pacing for THIS iteration
-            double pacingValue = calculatePacing();
-            currentPacing.set(pacingValue);
-            vars.put("pacing", String.valueOf(pacingValue));
+            calculatePacing(state);
+            vars.put("pacing", state.getPacingSeconds());
             
             // Set start time for THIS iteration
-            long startTimeMillis = LocalDateTime.now().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
-            iterationStartTime.set(startTimeMillis);
+            long startNanos = System.nanoTime();
+            long startTimeMillis = System.currentTimeMillis();
             vars.put("start_time", String.valueOf(startTimeMillis));
             
+            // Intended start: the first start, then the previous intended start plus its pacing
+            long intended = intendedStart >= 0 ? intendedStart : startNanos;
+            state.start(startNanos, intended, due >= 0 ? due : intended);
+            PacingSchedule.started(vars, intended, startNanos, startTimeMillis);
+            
             // Log pacing information
-            org.slf4j.LoggerFactory.getLogger(this.getClass())
-                .info("Pacing Configuration: Set pacing to {} seconds for iteration {}", 
-                      pacingValue, iterationNum);
+            if (log.isDebugEnabled()) {
+                log.debug("Pacing Configuration: Set pacing to {} seconds for iteration {}", 
+                          state.getPacingSeconds(), iterationNum);
+            }
                       
         } catch (Exception e) {
-            org.slf4j.LoggerFactory.getLogger(this.getClass())
-                .error("Pacing Configuration failed: " + e.getMessage(), e);
+            log.error("Pacing Configuration failed: " + e.getMessage(), e);
         }
     }
     
     /**
      * Handle pacing wait from previous iteration
      * This runs at the START of iteration N, waiting for iteration N-1's pacing requirement
-     * GUI-SAFE VERSION: Avoids blocking operations that could interfere with GUI threads
+     * The wait is a park on {@link PacingScheduler}, which wakes all paced threads from one timer wheel
+     *
+     * @return the intended start of this iteration (nanoTime), or -1 if the schedule starts again from now
      */
-    private void handlePacingWaitFromPreviousIteration(JMeterVariables vars, int currentIteration) {
-        Long prevStartTime = iterationStartTime.get();
-        Double prevPacing = currentPacing.get();
+    private long handlePacingWaitFromPreviousIteration(JMeterContext ctx, PacingState state, int currentIteration) {
+        if ("on".equals(ctx.getVariables().get("debugSwitch"))) {
+            log.info(">>>>> Debug mode ON - skipping pacing wait");
+            return -1;
+        }
+        
+        long pacingNanos = state.getPacingNanos();
+        long currentNanos = System.nanoTime();
+        long pacingMillis = TimeUnit.NANOSECONDS.toMillis(pacingNanos);
+        long elapsedNanos = currentNanos - state.getStartNanos();
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+        
+        // Previous iteration's time from when it was due (coordinated omission)
+        PacingSchedule.sampleIteration(ctx, state);
+        long intended = state.getNextIntendedNanos();
+        long deadline = state.getDeadlineNanos();
+        long remainingNanos = deadline - currentNanos;
         
-        if (prevStartTime != null && prevPacing != null) {
-            String debugSwitch = vars.get("debugSwitch");
-            boolean debugMode = "on".equals(debugSwitch);
+        // Get thread information for logging
+        String threadName = ctx.getThreadGroup().getName();
+        int threadNum = ctx.getThreadNum();
+        
+        PacingWaitEvent event = PacingWaitEvent.start();
+        if (remainingNanos > 0) {
+            if (log.isDebugEnabled()) {
+                log.debug(String.format(">>>>> TG:%s:T%d:I%d Elapsed:%.3fs Pacing:%.3fs Waiting:%.3fs",
+                                        threadName, threadNum, currentIteration,
+                                        elapsedNanos/1e9, pacingNanos/1e9, remainingNanos/1e9));
+            }
             
-            if (!debugMode) {
-                long pacingMillis = (long)(prevPacing * 1000);
-                long currentMillis = LocalDateTime.now().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
-                long elapsedMillis = currentMillis - prevStartTime;
-                long remainingMillis = pacingMillis - elapsedMillis;
-                
-                // Get thread information for logging
-                String threadName = JMeterContextService.getContext().getThreadGroup().getName();
-                int threadNum = JMeterContextService.getContext().getThreadNum();
-                
-                String debugMsg = String.format("TG:%s:T%d:I%d Elapsed:%.1fs Pacing:%.1fs", 
-                                               threadName, threadNum, currentIteration, 
-                                               elapsedMillis/1000.0, pacingMillis/1000.0);
-                
-                if (remainingMillis > 0) {
-                    debugMsg += String.format(" Waiting:%.1fs", remainingMillis/1000.0);
-                    org.slf4j.LoggerFactory.getLogger(this.getClass()).info(">>>>> " + debugMsg);
-                    
-                    // GUI-SAFE SLEEP: Use a non-blocking approach for GUI compatibility
-                    try {
-                        // Detect if we're running in GUI mode vs non-GUI mode
-                        boolean isGuiMode = isRunningInGuiMode();
-                        
-                        if (isGuiMode) {
-                            // GUI mode: Use shorter sleep intervals to avoid GUI freezing
-                            guiSafeSleep(remainingMillis);
-                        } else {
-                            // Non-GUI mode: Use regular sleep
-                            Thread.sleep(remainingMillis);
-                        }
-                    } catch (InterruptedException e) {
-                        org.slf4j.LoggerFactory.getLogger(this.getClass())
-                            .warn(">>>>> Sleep interrupted in thread {}-{} - test stopping", threadName, threadNum);
-                        // Properly handle interruption by restoring interrupt status
-                        Thread.currentThread().interrupt();
-                        return; // Exit early if interrupted
-                    }
-                } else {
-                    debugMsg += " No wait needed";
-                    org.slf4j.LoggerFactory.getLogger(this.getClass()).info(">>>>> " + debugMsg);
-                }
-            } else {
-                org.slf4j.LoggerFactory.getLogger(this.getClass())
-                    .info(">>>>> Debug mode ON - skipping pacing wait");
+            // Park on the shared pacing scheduler until the previous iteration's
+            // pacing is up; an interrupt (test stop) wakes the thread at once
+            try {
+                PacingScheduler.awaitNanos(deadline, state.getSpinNanos());
+            } catch (InterruptedException e) {
+                log.warn(">>>>> Sleep interrupted in thread {}-{} - test stopping", threadName, threadNum);
+                // Properly handle interruption by restoring interrupt status
+                Thread.currentThread().interrupt();
+                return intended; // Exit early if interrupted
+            } finally {
+                event.finish(threadName, threadNum, currentIteration, pacingMillis, elapsedMillis);
             }
         } else {
-            org.slf4j.LoggerFactory.getLogger(this.getClass())
-                .debug(">>>>> Previous timing data not available – no pacing wait applied");
+            if (log.isDebugEnabled()) {
+                log.debug(String.format(">>>>> TG:%s:T%d:I%d Elapsed:%.3fs Pacing:%.3fs No wait needed",
+                                        threadName, threadNum, currentIteration,
+                                        elapsedNanos/1e9, pacingNanos/1e9));
+            }
+            event.finish(threadName, threadNum, currentIteration, pacingMillis, elapsedMillis);
         }
+        return intended;
     }
     
     /**
-     * Detect if JMeter is running in GUI mode
+     * Arrival-rate mode: take the thread group's next arrival and wait for it.
+     * Arrivals that came due while no thread was free are dropped by the shared clock.
      */
-    private boolean isRunningInGuiMode() {
-        try {
-            // Check if JMeter GUI components are available
-            Class.forName("org.apache.jmeter.gui.GuiPackage");
-            return org.apache.jmeter.gui.GuiPackage.getInstance() != null;
-        } catch (Exception e) {
-            // GUI classes not available or not initialized - running in non-GUI mode
-            return false;
+    private void waitForArrival(JMeterContext ctx, PacingState state, int currentIteration) {
+        JMeterVariables vars = ctx.getVariables();
+        String threadGroup = ctx.getThreadGroup().getName();
+        
+        // The previous iteration, timed from its arrival (coordinated omission)
+        if (state.isStarted()) {
+            PacingSchedule.sampleIteration(ctx, state);
         }
-    }
-    
-    /**
-     * GUI-safe sleep that won't freeze the GUI
-     * Sleeps in smaller intervals and checks for interruption more frequently
-     */
-    private void guiSafeSleep(long totalMillis) throws InterruptedException {
-        long sleptMillis = 0;
-        final long sleepInterval = 100; // Sleep in 100ms chunks
         
-        org.slf4j.LoggerFactory.getLogger(this.getClass())
-            .debug(">>>>> GUI-safe sleep: {}ms in {}ms intervals", totalMillis, sleepInterval);
+        PacingArrivals arrivals = state.getArrivals();
+        if (arrivals == null) {
+            arrivals = PacingArrivals.forThreadGroup(threadGroup,
+                Double.parseDouble(getArrivalRate().trim()),
+                !DISTRIBUTION_UNIFORM.equalsIgnoreCase(getArrivalDistribution().trim()));
+            state.setArrivals(arrivals);
+        }
+        long arrival = arrivals.claim(System.nanoTime(), state.getGraceNanos());
         
-        while (sleptMillis < totalMillis) {
-            long remainingMillis = totalMillis - sleptMillis;
-            long thisInterval = Math.min(sleepInterval, remainingMillis);
-            
-            Thread.sleep(thisInterval);
-            sleptMillis += thisInterval;
-            
-            // Check for interruption more frequently in GUI mode
-            if (Thread.currentThread().isInterrupted()) {
-                throw new InterruptedException("GUI-safe sleep interrupted");
+        if (!"on".equals(vars.get("debugSwitch"))) {
+            try {
+                PacingScheduler.awaitNanos(arrival, state.getSpinNanos());
+            } catch (InterruptedException e) {
+                log.warn(">>>>> Arrival wait interrupted in thread {}-{} - test stopping", threadGroup, ctx.getThreadNum());
+                Thread.currentThread().interrupt();
             }
         }
         
-        org.slf4j.LoggerFactory.getLogger(this.getClass())
-            .debug(">>>>> GUI-safe sleep completed: {}ms", sleptMillis);
+        long startNanos = System.nanoTime();
+        long startTimeMillis = System.currentTimeMillis();
+        state.start(startNanos, arrival);
+        vars.put("start_time", String.valueOf(startTimeMillis));
+        vars.put("arrivals_dropped", String.valueOf(arrivals.getDropped()));
+        long lag = PacingSchedule.started(vars, arrival, startNanos, startTimeMillis);
+        if (log.isDebugEnabled()) {
+            log.debug(">>>>> TG:{}:T{}:I{} arrival started {} ms after due", threadGroup, ctx.getThreadNum(),
+                      currentIteration, lag);
+        }
     }
     
     /**
      * Calculate pacing value based on configuration
-     * Returns either fixed value or random value within range
+     * Sets either fixed value or random value within range, in nanoseconds; the
+     * parsed values are kept in the thread's state until the configuration changes
      */
-    private double calculatePacing() {
+    private void calculatePacing(PacingState state) {
         try {
-            int min = Integer.parseInt(getMinPacing().trim());
-            String maxStr = getMaxPacing().trim();
-            
-            if (maxStr.isEmpty()) {
-                // Fixed pacing
-                org.slf4j.LoggerFactory.getLogger(this.getClass())
-                    .debug(">>>>> Single pacing value: {}", min);
-                return min;
-            } else {
-                // Random pacing within range
-                int max = Integer.parseInt(maxStr);
-                if (min > max) {
-                    // Swap if needed
-                    int temp = min;
-                    min = max;
-                    max = temp;
-                }
-                
-                int pacingValue = min + random.nextInt(max - min + 1);
-                org.slf4j.LoggerFactory.getLogger(this.getClass())
-                    .debug(">>>>> Pacing range {}-{}, selected: {}", min, max, pacingValue);
-                return pacingValue;
-            }
-            
+            state.choosePacing(getMinPacing(), getMaxPacing());
         } catch (NumberFormatException e) {
-            org.slf4j.LoggerFactory.getLogger(this.getClass())
-                .error("Invalid pacing configuration, using default: " + e.getMessage());
-            return 60; // Default fallback
+            log.error("Invalid pacing configuration, using default: " + e.getMessage());
+            state.setPacingNanos(TimeUnit.SECONDS.toNanos(60)); // Default fallback
         }
     }
     
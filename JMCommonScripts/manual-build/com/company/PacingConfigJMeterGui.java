@@ -29,6 +29,8 @@ public class PacingConfigJMeterGui extends AbstractConfigGui {
     private JTextField minPacingField;
     private JTextField maxPacingField;
     private JCheckBox enabledCheckBox;
+    private JTextField arrivalRateField;
+    private JComboBox<String> distributionCombo;
     private JTextArea previewArea;
     
     public PacingConfigJMeterGui() {
@@ -82,6 +84,8 @@ public class PacingConfigJMeterGui extends AbstractConfigGui {
             pacingElement.setMinPacing(minPacingField.getText().trim());
             pacingElement.setMaxPacing(maxPacingField.getText().trim());
             pacingElement.setPacingEnabled(enabledCheckBox.isSelected());
+            pacingElement.setArrivalRate(arrivalRateField.getText().trim());
+            pacingElement.setArrivalDistribution((String) distributionCombo.getSelectedItem());
         }
     }
     
@@ -93,6 +97,8 @@ public class PacingConfigJMeterGui extends AbstractConfigGui {
             minPacingField.setText(pacingElement.getMinPacing());
             maxPacingField.setText(pacingElement.getMaxPacing());
             enabledCheckBox.setSelected(pacingElement.isPacingEnabled());
+            arrivalRateField.setText(pacingElement.getArrivalRate());
+            distributionCombo.setSelectedItem(pacingElement.getArrivalDistribution());
             updatePreview();
         }
     }
@@ -103,6 +109,8 @@ public class PacingConfigJMeterGui extends AbstractConfigGui {
         minPacingField.setText("");
         maxPacingField.setText("");
         enabledCheckBox.setSelected(true);
+        arrivalRateField.setText("");
+        distributionCombo.setSelectedItem(PacingConfigJMeter.DISTRIBUTION_POISSON);
         updatePreview();
     }
     
@@ -156,6 +164,8 @@ public class PacingConfigJMeterGui extends AbstractConfigGui {
             "Configure pacing (think time) between iterations. " +
             "Min Pacing (required): Fixed pacing if Max is empty, or minimum for random range. " +
             "Max Pacing (optional): If specified, pacing will be randomly selected between Min and Max (inclusive). " +
+            "Arrival Rate (optional): iterations per second for the whole thread group instead of pacing per thread; " +
+            "arrivals that find no free thread are dropped and counted. " +
             "This replaces the need for JSR223 sampler Parameters and group_init.groovy pacing logic."
         );
         
@@ -173,6 +183,8 @@ public class PacingConfigJMeterGui extends AbstractConfigGui {
             boolean enabled = enabledCheckBox.isSelected();
             minPacingField.setEnabled(enabled);
             maxPacingField.setEnabled(enabled);
+            arrivalRateField.setEnabled(enabled);
+            distributionCombo.setEnabled(enabled);
             updatePreview();
         });
         panel.add(enabledCheckBox);
@@ -181,7 +193,7 @@ public class PacingConfigJMeterGui extends AbstractConfigGui {
         JPanel minPanel = new HorizontalPanel();
         minPanel.add(new JLabel("Min Pacing (seconds): "));
         minPacingField = new JTextField(10);
-        minPacingField.setToolTipText("Minimum pacing in seconds (required). If Max is empty, this will be the fixed pacing.");
+        minPacingField.setToolTipText("Minimum pacing in seconds, or with a unit such as 250ms (required). If Max is empty, this will be the fixed pacing.");
         minPacingField.getDocument().addDocumentListener(new DocumentListener() {
             public void insertUpdate(DocumentEvent e) { updatePreview(); }
             public void removeUpdate(DocumentEvent e) { updatePreview(); }
@@ -194,7 +206,7 @@ public class PacingConfigJMeterGui extends AbstractConfigGui {
         JPanel maxPanel = new HorizontalPanel();
         maxPanel.add(new JLabel("Max Pacing (seconds): "));
         maxPacingField = new JTextField(10);
-        maxPacingField.setToolTipText("Maximum pacing in seconds (optional). If specified, pacing will be random between Min and Max.");
+        maxPacingField.setToolTipText("Maximum pacing in seconds, or with a unit such as 400ms (optional). If specified, pacing will be random between Min and Max.");
         maxPacingField.getDocument().addDocumentListener(new DocumentListener() {
             public void insertUpdate(DocumentEvent e) { updatePreview(); }
             public void removeUpdate(DocumentEvent e) { updatePreview(); }
@@ -203,6 +215,24 @@ public class PacingConfigJMeterGui extends AbstractConfigGui {
         maxPanel.add(maxPacingField);
         panel.add(maxPanel);
         
+        // Arrival rate (open model) replaces per-thread pacing when set
+        JPanel ratePanel = new HorizontalPanel();
+        ratePanel.add(new JLabel("Arrival Rate (iterations/s per thread group): "));
+        arrivalRateField = new JTextField(10);
+        arrivalRateField.setToolTipText("Optional. Start iterations at this rate across the thread group; Min/Max Pacing are then ignored.");
+        arrivalRateField.getDocument().addDocumentListener(new DocumentListener() {
+            public void insertUpdate(DocumentEvent e) { updatePreview(); }
+            public void removeUpdate(DocumentEvent e) { updatePreview(); }
+            public void changedUpdate(DocumentEvent e) { updatePreview(); }
+        });
+        ratePanel.add(arrivalRateField);
+        distributionCombo = new JComboBox<>(new String[] {
+            PacingConfigJMeter.DISTRIBUTION_POISSON, PacingConfigJMeter.DISTRIBUTION_UNIFORM });
+        distributionCombo.setToolTipText("poisson: random gaps like independent users; uniform: evenly spaced arrivals");
+        distributionCombo.addActionListener(e -> updatePreview());
+        ratePanel.add(distributionCombo);
+        panel.add(ratePanel);
+        
         return panel;
     }
     
@@ -234,8 +264,23 @@ public class PacingConfigJMeterGui extends AbstractConfigGui {
         
         StringBuilder preview = new StringBuilder();
         
+        String rateStr = arrivalRateField == null ? "" : arrivalRateField.getText().trim();
+        
         if (!enabledCheckBox.isSelected()) {
             preview.append("Pacing is DISABLED - no think time will be applied between iterations");
+        } else if (!rateStr.isEmpty()) {
+            try {
+                double rate = Double.parseDouble(rateStr);
+                if (rate <= 0) {
+                    preview.append("⚠ Arrival Rate must be greater than 0");
+                } else {
+                    preview.append("Arrival rate: ").append(rate).append(" iterations/s across the thread group (")
+                           .append(distributionCombo.getSelectedItem())
+                           .append(" arrivals) - arrivals with no free thread are dropped");
+                }
+            } catch (NumberFormatException e) {
+                preview.append("⚠ Arrival Rate must be a number");
+            }
         } else {
             String minStr = minPacingField.getText().trim();
             String maxStr = maxPacingField.getText().trim();
@@ -244,30 +289,30 @@ public class PacingConfigJMeterGui extends AbstractConfigGui {
                 preview.append("⚠ Min Pacing is required when pacing is enabled");
             } else {
                 try {
-                    int min = Integer.parseInt(minStr);
+                    long min = PacingSchedule.parseNanos(minStr);
                     if (min <= 0) {
                         preview.append("⚠ Min Pacing must be greater than 0");
                     } else if (maxStr.isEmpty()) {
-                        preview.append("Fixed pacing: exactly ").append(min).append(" seconds between each iteration");
+                        preview.append("Fixed pacing: exactly ").append(PacingSchedule.formatSeconds(min)).append(" seconds between each iteration");
                     } else {
                         try {
-                            int max = Integer.parseInt(maxStr);
+                            long max = PacingSchedule.parseNanos(maxStr);
                             if (max <= 0) {
                                 preview.append("⚠ Max Pacing must be greater than 0");
                             } else if (max < min) {
                                 preview.append("⚠ Max Pacing must be >= Min Pacing");
                             } else if (max == min) {
-                                preview.append("Fixed pacing: exactly ").append(min).append(" seconds between each iteration");
+                                preview.append("Fixed pacing: exactly ").append(PacingSchedule.formatSeconds(min)).append(" seconds between each iteration");
                             } else {
-                                preview.append("Random pacing: between ").append(min).append(" and ").append(max)
+                                preview.append("Random pacing: between ").append(PacingSchedule.formatSeconds(min)).append(" and ").append(PacingSchedule.formatSeconds(max))
                                        .append(" seconds (inclusive) - randomly selected each iteration");
                             }
                         } catch (NumberFormatException e) {
-                            preview.append("⚠ Max Pacing must be a valid integer");
+                            preview.append("⚠ Max Pacing must be seconds or have a unit (e.g. 0.25, 250ms)");
                         }
                     }
                 } catch (NumberFormatException e) {
-                    preview.append("⚠ Min Pacing must be a valid integer");
+                    preview.append("⚠ Min Pacing must be seconds or have a unit (e.g. 0.25, 250ms)");
                 }
             }
         }
@@ -0,0 +1,206 @@
+package com.company;
+
+import org.apache.jmeter.samplers.SampleEvent;
+import org.apache.jmeter.samplers.SampleListener;
+import org.apache.jmeter.samplers.SampleResult;
+import org.apache.jmeter.testelement.ThreadListener;
+import org.apache.jmeter.threads.AbstractThreadGroup;
+import org.apache.jmeter.threads.JMeterContext;
+import org.apache.jmeter.threads.JMeterContextService;
+import org.apache.jmeter.threads.JMeterThread;
+import org.apache.jmeter.threads.JMeterVariables;
+import org.apache.jmeter.threads.SamplePackage;
+import org.apache.jmeter.util.JMeterUtils;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Intended start times of a paced thread's iterations (coordinated omission).
+ *
+ * Pacing waits from the previous iteration's start; when an iteration overruns
+ * its pacing the next one just starts late, and the delay disappears from the
+ * results - samples show how long the server took once asked, not how long a
+ * user arriving on schedule would have waited. The intended schedule is the
+ * thread's first start plus the pacing of every iteration since, whatever the
+ * overruns. Both PacingConfigJMeter and GroupInitUtil set, per iteration:
+ *
+ * <pre>
+ *     intended_start   when the iteration should have started (epoch ms)
+ *     schedule_lag     how far behind that it started (ms)
+ * </pre>
+ *
+ * JMeter properties:
+ *
+ * <pre>
+ *     pacing.catch.up=false            (true: wait for the intended start, so iterations after an
+ *                                       overrun start straight away until the thread is back on schedule)
+ *     pacing.corrected.samples=false   (true: one extra sample per iteration, from when it was due to its end)
+ *     pacing.corrected.label=Iteration (corrected)
+ * </pre>
+ *
+ * Pacing values are seconds ({@code 60}, {@code 0.25}) or carry a unit
+ * ({@code 250ms}, {@code 1.5s}, {@code 500us}); {@link #parseNanos} reads
+ * them. All schedule arithmetic is on System.nanoTime, so wall-clock steps
+ * do not move it; intended_start is reported on the wall clock by going back
+ * schedule_lag from start_time.
+ *
+ * Without catch-up the wait still runs from the previous iteration's actual
+ * start, as before, so schedule_lag never shrinks: it is the total time the
+ * thread has fallen behind its intended arrival rate. The corrected sample is
+ * timed from when the iteration was due: its intended start with catch-up,
+ * otherwise the previous iteration's start plus its pacing, so an overrun
+ * shows in the sample after it instead of in every sample to the end of the
+ * test. Its response message gives that sample's own lag. It is sent to the
+ * listeners of the thread's last sampler when the next iteration starts, and
+ * for the thread's last iteration when the thread finishes.
+ */
+public final class PacingSchedule {
+
+    public static final String CATCH_UP = "pacing.catch.up";
+    public static final String CORRECTED_SAMPLES = "pacing.corrected.samples";
+    public static final String CORRECTED_LABEL = "pacing.corrected.label";
+
+    public static final String V_INTENDED_START = "intended_start";
+    public static final String V_SCHEDULE_LAG = "schedule_lag";
+
+    private PacingSchedule() {}
+
+    /**
+     * Parse a pacing value: seconds, or a number with an {@code ms}, {@code us}
+     * or {@code s} unit
+     *
+     * @return the pacing in nanoseconds
+     * @throws NumberFormatException if the value is not a number, with or without a unit
+     */
+    public static long parseNanos(String spec) {
+        String value = spec.trim().toLowerCase();
+        double unitNanos = 1e9;
+        if (value.endsWith("ms")) {
+            unitNanos = 1e6;
+            value = value.substring(0, value.length() - 2);
+        } else if (value.endsWith("us")) {
+            unitNanos = 1e3;
+            value = value.substring(0, value.length() - 2);
+        } else if (value.endsWith("s")) {
+            value = value.substring(0, value.length() - 1);
+        }
+        double amount = Double.parseDouble(value.trim());
+        if (Double.isNaN(amount) || Double.isInfinite(amount)) {
+            throw new NumberFormatException("Not a pacing value: " + spec);
+        }
+        return Math.round(amount * unitNanos);
+    }
+
+    /**
+     * Random pacing between two values, both inclusive, to the microsecond
+     */
+    public static long between(long minNanos, long maxNanos) {
+        long min = Math.min(minNanos, maxNanos) / 1000;
+        long max = Math.max(minNanos, maxNanos) / 1000;
+        return ThreadLocalRandom.current().nextLong(min, max + 1) * 1000;
+    }
+
+    /**
+     * Pacing in seconds for the {@code pacing} variable: "60", "0.25"
+     */
+    public static String formatSeconds(long nanos) {
+        return BigDecimal.valueOf(nanos, 9).stripTrailingZeros().toPlainString();
+    }
+
+    /**
+     * When the wait before the next iteration ends: the intended start with
+     * catch-up, otherwise a pacing interval after the previous actual start
+     */
+    public static long waitDeadline(long previousStartNanos, long intendedStartNanos, long pacingNanos) {
+        return waitDeadline(previousStartNanos, intendedStartNanos, pacingNanos,
+            JMeterUtils.getPropDefault(CATCH_UP, false));
+    }
+
+    /**
+     * {@link #waitDeadline(long, long, long)} with {@code pacing.catch.up} already read
+     */
+    public static long waitDeadline(long previousStartNanos, long intendedStartNanos, long pacingNanos,
+                                    boolean catchUp) {
+        return catchUp ? intendedStartNanos : previousStartNanos + pacingNanos;
+    }
+
+    /**
+     * Set intended_start and schedule_lag for an iteration that started at
+     * {@code startNanos} (wall clock {@code startMillis})
+     *
+     * @return the schedule lag in ms
+     */
+    public static long started(JMeterVariables vars, long intendedStartNanos, long startNanos, long startMillis) {
+        long lag = TimeUnit.NANOSECONDS.toMillis(Math.max(0, startNanos - intendedStartNanos));
+        vars.put(V_INTENDED_START, String.valueOf(startMillis - lag));
+        vars.put(V_SCHEDULE_LAG, String.valueOf(lag));
+        return lag;
+    }
+
+    /**
+     * Send the corrected sample of the thread's current iteration, from when
+     * it was due to now, if enabled, to the listeners in scope of the thread's
+     * last sampler
+     */
+    public static void sampleIteration(JMeterContext ctx, PacingState state) {
+        if (!JMeterUtils.getPropDefault(CORRECTED_SAMPLES, false)) {
+            return;
+        }
+        sampleIteration(ctx.getThread(), ctx.getVariables(), ctx.getThreadGroup(), state);
+    }
+
+    private static void sampleIteration(JMeterThread thread, JMeterVariables vars, AbstractThreadGroup threadGroup,
+                                        PacingState state) {
+        Object pack = vars.getObject(JMeterThread.PACKAGE_OBJECT);
+        if (thread == null || !(pack instanceof SamplePackage)) {
+            return;
+        }
+        List<SampleListener> listeners = ((SamplePackage) pack).getSampleListeners();
+
+        SampleResult result = new SampleResult();
+        result.setSampleLabel(JMeterUtils.getPropDefault(CORRECTED_LABEL, "Iteration (corrected)"));
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(Math.max(0, System.nanoTime() - state.getDueNanos()));
+        long lag = TimeUnit.NANOSECONDS.toMillis(Math.max(0, state.getStartNanos() - state.getDueNanos()));
+        result.setStampAndTime(System.currentTimeMillis() - elapsed, elapsed);
+        result.setSuccessful(true);
+        result.setResponseCodeOK();
+        result.setResponseMessage("Schedule lag " + lag + " ms");
+        result.setDataType(SampleResult.TEXT);
+        result.setThreadName(thread.getThreadName());
+        result.setGroupThreads(threadGroup.getNumberOfThreads());
+        result.setAllThreads(JMeterContextService.getNumberOfThreads());
+        thread.getNotifier().notifyListeners(new SampleEvent(result, threadGroup.getName(), vars), listeners);
+    }
+
+    /**
+     * Send the corrected sample of the thread's last iteration when the thread
+     * finishes, if enabled; call on the thread's first iteration. The listener
+     * goes into the thread's own copy of the test tree, which JMeter walks for
+     * thread listeners when the thread ends - after it has cleared the
+     * thread's context, so the thread, variables and group are kept here.
+     */
+    public static void sampleLastIteration(JMeterContext ctx, PacingState state) {
+        JMeterThread thread = ctx.getThread();
+        if (!JMeterUtils.getPropDefault(CORRECTED_SAMPLES, false) || thread == null) {
+            return;
+        }
+        JMeterVariables vars = ctx.getVariables();
+        AbstractThreadGroup threadGroup = ctx.getThreadGroup();
+        thread.getTestTree().add(new ThreadListener() {
+            @Override
+            public void threadStarted() {
+                // registered after the thread started
+            }
+
+            @Override
+            public void threadFinished() {
+                if (state.isStarted()) {
+                    sampleIteration(thread, vars, threadGroup, state);
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,341 @@
+package com.company;
+
+import org.apache.jmeter.util.JMeterUtils;
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Shared pacing wait for all JMeter threads.
+ *
+ * Instead of every paced thread sleeping on its own timed wait, a thread
+ * registers the deadline of its next iteration and parks; one scheduler
+ * thread keeps the deadlines in a hierarchical timer wheel and unparks each
+ * thread when its deadline passes. The wheel has 1 ms ticks and four levels
+ * (256 ms, 16 s, 17 min and 18 h per lap); a deadline is filed in the level
+ * that covers it and moves down a level as its time approaches, so filing and
+ * firing cost the same for 10 or 10,000 waiting threads. The scheduler sleeps
+ * until the next slot that holds a deadline, not every tick.
+ *
+ * Deadlines are {@link System#nanoTime} values, so NTP steps of the wall
+ * clock do not stretch or cut a wait. The wheel hands a thread back about a
+ * tick before its deadline; the thread parks the rest itself with
+ * {@link LockSupport#parkNanos} and, if a spin tail is asked for, busy-waits
+ * the last few microseconds instead of relying on the OS timer:
+ *
+ * <pre>
+ *     pacing.spin.us=0      (busy-wait before each deadline, e.g. 200 for tight sub-second pacing)
+ * </pre>
+ *
+ * A parked thread still reacts to interruption straight away (test stop), so
+ * GUI runs no longer need to sleep in short chunks.
+ *
+ * Each wake-up records how late it was against its deadline; the spread is
+ * logged at test end ({@link #logStats}).
+ */
+public final class PacingScheduler {
+
+    private static final Logger log = LoggingManager.getLoggerForClass();
+
+    public static final String SPIN = "pacing.spin.us";
+
+    private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    /** Slot-index bits per level: 256 ticks at level 0, then 64 slots per level */
+    private static final int[] BITS = { 8, 6, 6, 6 };
+    private static final int[] SHIFT = { 0, 8, 14, 20 };
+    private static final int LEVELS = BITS.length;
+
+    private static final PacingScheduler instance = new PacingScheduler();
+
+    private final long origin = System.nanoTime();
+    private final ConcurrentLinkedQueue<Timer> registrations = new ConcurrentLinkedQueue<>();
+    private volatile Thread thread;
+    /** Tick the scheduler is parked until; a registration only wakes it for an earlier deadline */
+    private volatile long wakeTick = Long.MAX_VALUE;
+
+    // Wheel state, touched only by the scheduler thread
+    private final Timer[][] slots = new Timer[LEVELS][];
+    private final int[] counts = new int[LEVELS];
+    private long currentTick;
+
+    // Lateness of each wake-up against its deadline, in power-of-two microsecond buckets
+    private final LongAdder wakeups = new LongAdder();
+    private final LongAdder latenessNanos = new LongAdder();
+    private final LongAccumulator maxLatenessNanos = new LongAccumulator(Math::max, 0);
+    private final LongAdder[] latenessHistogram = new LongAdder[40];
+
+    private PacingScheduler() {
+        for (int level = 0; level < LEVELS; level++) {
+            slots[level] = new Timer[1 << BITS[level]];
+        }
+        for (int i = 0; i < latenessHistogram.length; i++) {
+            latenessHistogram[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Park the calling thread until {@code deadlineNanos} (a System.nanoTime
+     * value), with the spin tail set by {@code pacing.spin.us}. Returns at once
+     * if the deadline has passed.
+     *
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public static void awaitNanos(long deadlineNanos) throws InterruptedException {
+        awaitNanos(deadlineNanos, TimeUnit.MICROSECONDS.toNanos(JMeterUtils.getPropDefault(SPIN, 0L)));
+    }
+
+    /**
+     * Park the calling thread until {@code deadlineNanos}, busy-waiting the
+     * last {@code spinNanos}
+     *
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public static void awaitNanos(long deadlineNanos, long spinNanos) throws InterruptedException {
+        if (deadlineNanos - System.nanoTime() > 0) {
+            instance.await(deadlineNanos, Math.max(0, spinNanos));
+        }
+    }
+
+    /**
+     * Log how late threads were woken since the last call and reset the figures (test end)
+     */
+    public static void logStats() {
+        instance.logAndReset();
+    }
+
+    private void await(long deadlineNanos, long spinNanos) throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException("Pacing wait interrupted");
+        }
+        long parkUntil = deadlineNanos - spinNanos;
+        if (parkUntil - System.nanoTime() > 2 * TICK_NANOS) {
+            // Up to a tick before parkUntil, and never after it if the scheduler keeps up
+            awaitWheel(parkUntil - TICK_NANOS);
+        }
+        for (long remaining; (remaining = parkUntil - System.nanoTime()) > 0; ) {
+            LockSupport.parkNanos(this, remaining);
+            if (Thread.interrupted()) {
+                throw new InterruptedException("Pacing wait interrupted");
+            }
+        }
+        while (System.nanoTime() - deadlineNanos < 0) {
+            Thread.onSpinWait();
+        }
+        record(System.nanoTime() - deadlineNanos);
+    }
+
+    private void awaitWheel(long deadlineNanos) throws InterruptedException {
+        // Round up to the next tick: the wheel may wake a thread late by up to a tick, never early
+        Timer timer = new Timer(Thread.currentThread(), ceilDiv(deadlineNanos - origin, TICK_NANOS));
+        registrations.add(timer);
+        Thread current = scheduler();
+        if (timer.tick < wakeTick) {
+            LockSupport.unpark(current);
+        }
+
+        while (!timer.fired) {
+            LockSupport.park(this);
+            if (Thread.interrupted()) {
+                timer.cancelled = true;
+                throw new InterruptedException("Pacing wait interrupted");
+            }
+        }
+    }
+
+    private Thread scheduler() {
+        Thread current = thread;
+        if (current == null) {
+            synchronized (this) {
+                current = thread;
+                if (current == null) {
+                    currentTick = (System.nanoTime() - origin) / TICK_NANOS;
+                    current = new Thread(this::run, "Pacing-scheduler");
+                    current.setDaemon(true);
+                    current.start();
+                    thread = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    private void run() {
+        while (true) {
+            for (Timer timer; (timer = registrations.poll()) != null; ) {
+                file(timer);
+            }
+            long nowTick = (System.nanoTime() - origin) / TICK_NANOS;
+            while (currentTick < nowTick) {
+                advance(currentTick + 1);
+            }
+
+            long next = nextBusyTick();
+            wakeTick = next < 0 ? Long.MAX_VALUE : next;
+            if (!registrations.isEmpty()) {
+                // Registered after the drain, possibly without waking us
+                continue;
+            }
+            if (next < 0) {
+                // Nothing to fire: wait for the next registration
+                LockSupport.park(this);
+            } else {
+                long delay = origin + next * TICK_NANOS - System.nanoTime();
+                if (delay > 0) {
+                    LockSupport.parkNanos(this, delay);
+                }
+            }
+        }
+    }
+
+    /**
+     * Move the wheel to {@code tick}: deadlines of the higher levels whose
+     * slot starts now drop a level, then the level-0 slot fires
+     */
+    private void advance(long tick) {
+        currentTick = tick;
+        for (int level = LEVELS - 1; level > 0; level--) {
+            if ((tick & ((1L << SHIFT[level]) - 1)) == 0) {
+                int index = (int) (tick >> SHIFT[level]) & (slots[level].length - 1);
+                Timer timer = slots[level][index];
+                slots[level][index] = null;
+                while (timer != null) {
+                    Timer next = timer.next;
+                    counts[level]--;
+                    file(timer);
+                    timer = next;
+                }
+            }
+        }
+        int index = (int) tick & (slots[0].length - 1);
+        Timer timer = slots[0][index];
+        slots[0][index] = null;
+        while (timer != null) {
+            Timer next = timer.next;
+            counts[0]--;
+            fire(timer);
+            timer = next;
+        }
+    }
+
+    /**
+     * File a deadline in the lowest level whose lap covers it; past deadlines fire now
+     */
+    private void file(Timer timer) {
+        if (timer.cancelled) {
+            return;
+        }
+        long delta = timer.tick - currentTick;
+        if (delta <= 0) {
+            fire(timer);
+            return;
+        }
+        // Lowest level where the deadline's slot is less than one lap ahead of the current slot
+        int level = delta < slots[0].length ? 0 : 1;
+        while (level < LEVELS - 1
+                && (timer.tick >> SHIFT[level]) - (currentTick >> SHIFT[level]) >= slots[level].length) {
+            level++;
+        }
+        long slot = Math.min(timer.tick >> SHIFT[level],
+            // Beyond the top level's lap: file it in the last slot of the lap, it is refiled from there
+            (currentTick >> SHIFT[level]) + slots[level].length - 1);
+        int index = (int) slot & (slots[level].length - 1);
+        timer.next = slots[level][index];
+        slots[level][index] = timer;
+        counts[level]++;
+    }
+
+    private static void fire(Timer timer) {
+        if (!timer.cancelled) {
+            timer.fired = true;
+            LockSupport.unpark(timer.thread);
+        }
+    }
+
+    /**
+     * Tick at which the scheduler next has work: the nearest occupied level-0
+     * slot or the next slot boundary of the lowest occupied higher level; -1 if
+     * the wheel is empty
+     */
+    private long nextBusyTick() {
+        long next = -1;
+        if (counts[0] > 0) {
+            for (long tick = currentTick + 1; tick <= currentTick + slots[0].length; tick++) {
+                if (slots[0][(int) tick & (slots[0].length - 1)] != null) {
+                    next = tick;
+                    break;
+                }
+            }
+        }
+        for (int level = 1; level < LEVELS; level++) {
+            if (counts[level] > 0) {
+                long boundary = ((currentTick >> SHIFT[level]) + 1) << SHIFT[level];
+                return next < 0 ? boundary : Math.min(next, boundary);
+            }
+        }
+        return next;
+    }
+
+    private void record(long lateNanos) {
+        long late = Math.max(0, lateNanos);
+        wakeups.increment();
+        latenessNanos.add(late);
+        maxLatenessNanos.accumulate(late);
+        int bucket = 64 - Long.numberOfLeadingZeros(TimeUnit.NANOSECONDS.toMicros(late));
+        latenessHistogram[Math.min(bucket, latenessHistogram.length - 1)].increment();
+    }
+
+    private void logAndReset() {
+        long count = wakeups.sumThenReset();
+        long total = latenessNanos.sumThenReset();
+        long max = maxLatenessNanos.getThenReset();
+        long[] histogram = new long[latenessHistogram.length];
+        for (int i = 0; i < histogram.length; i++) {
+            histogram[i] = latenessHistogram[i].sumThenReset();
+        }
+        if (count == 0) {
+            return;
+        }
+        log.info(String.format("Pacing scheduler: %d wake-ups, late by avg %.2f ms, p50 <= %.2f ms, "
+                + "p99 <= %.2f ms, max %.2f ms", count, total / 1e6 / count, percentile(histogram, count, 0.50),
+            percentile(histogram, count, 0.99), max / 1e6));
+    }
+
+    /**
+     * Upper bound of the histogram bucket holding the given fraction of wake-ups, in ms
+     */
+    private static double percentile(long[] histogram, long count, double fraction) {
+        long seen = 0;
+        for (int bucket = 0; bucket < histogram.length; bucket++) {
+            seen += histogram[bucket];
+            if (seen >= Math.ceil(count * fraction)) {
+                return (bucket == 0 ? 1 : 1L << bucket) / 1000.0;
+            }
+        }
+        return Double.NaN;
+    }
+
+    private static long ceilDiv(long value, long divisor) {
+        return -Math.floorDiv(-value, divisor);
+    }
+
+    /**
+     * One waiting thread; {@code next} links the timers of a wheel slot
+     */
+    private static final class Timer {
+        final Thread thread;
+        final long tick;
+        volatile boolean fired;
+        volatile boolean cancelled;
+        Timer next;
+
+        Timer(Thread thread, long tick) {
+            this.thread = thread;
+            this.tick = tick;
+        }
+    }
+}
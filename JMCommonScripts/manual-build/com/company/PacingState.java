@@ -0,0 +1,245 @@
+package com.company;
+
+import org.apache.jmeter.threads.AbstractThreadGroup;
+import org.apache.jmeter.util.JMeterUtils;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pacing state of one JMeter thread, kept between its iterations.
+ *
+ * The records of a thread group sit in an array indexed by thread number, so
+ * a thread finds its own with one map lookup and an array read; the fields are
+ * primitives, and the pacing spec, the formatted {@code pacing} variable and
+ * the JMeter properties the wait depends on are kept with them, so an
+ * iteration with an unchanged spec parses, formats and boxes nothing. Only the
+ * owning thread touches a record after it is created.
+ *
+ * PacingConfigJMeter and GroupInitUtil share the records; they are dropped at
+ * test start and end ({@link #clear}), and the properties are read again when
+ * a thread's record is next created.
+ */
+public final class PacingState {
+
+    private static final Map<AbstractThreadGroup, PacingState[]> groups = new ConcurrentHashMap<>();
+
+    // JMeter properties, read once per thread and test
+    private final boolean catchUp = JMeterUtils.getPropDefault(PacingSchedule.CATCH_UP, false);
+    private final long spinNanos = TimeUnit.MICROSECONDS.toNanos(JMeterUtils.getPropDefault(PacingScheduler.SPIN, 0L));
+    private final long graceNanos = TimeUnit.MILLISECONDS.toNanos(JMeterUtils.getPropDefault(PacingArrivals.GRACE, 10L));
+
+    // Schedule, all System.nanoTime
+    private boolean started;
+    private long startNanos;
+    private long intendedNanos;
+    private long dueNanos;
+    private long pacingNanos;
+
+    // Last pacing spec and its parsed range; max is -1 for a fixed pacing
+    private String minSpec;
+    private String maxSpec;
+    private long minNanos;
+    private long maxNanos = -1;
+
+    // The pacing variable for pacingNanos, formatted when it changes
+    private long formattedNanos = -1;
+    private String formatted;
+
+    private String debugPrefix;
+    private PacingArrivals arrivals;
+
+    private PacingState() {}
+
+    /**
+     * The record of a thread, created on its first iteration
+     */
+    public static PacingState of(AbstractThreadGroup threadGroup, int threadNum) {
+        PacingState[] states = groups.get(threadGroup);
+        if (states != null && threadNum < states.length) {
+            PacingState state = states[threadNum];
+            if (state != null) {
+                return state;
+            }
+        }
+        return create(threadGroup, threadNum);
+    }
+
+    private static synchronized PacingState create(AbstractThreadGroup threadGroup, int threadNum) {
+        PacingState[] states = groups.get(threadGroup);
+        if (states == null || threadNum >= states.length) {
+            int size = Math.max(threadNum + 1, threadGroup.getNumThreads());
+            states = states == null ? new PacingState[size]
+                : Arrays.copyOf(states, Math.max(size, states.length * 2));
+            groups.put(threadGroup, states);
+        }
+        if (states[threadNum] == null) {
+            states[threadNum] = new PacingState();
+        }
+        return states[threadNum];
+    }
+
+    /**
+     * Forget every thread's state (test start and end)
+     */
+    public static void clear() {
+        groups.clear();
+    }
+
+    /**
+     * Whether an earlier iteration of this thread has started, so there is a pacing wait to apply
+     */
+    public boolean isStarted() {
+        return started;
+    }
+
+    /**
+     * Record the start of an iteration that was due at its intended start
+     */
+    public void start(long startNanos, long intendedNanos) {
+        start(startNanos, intendedNanos, intendedNanos);
+    }
+
+    /**
+     * Record the start of an iteration
+     *
+     * @param dueNanos when its wait ended, or would have without an overrun; its corrected sample runs from here
+     */
+    public void start(long startNanos, long intendedNanos, long dueNanos) {
+        this.startNanos = startNanos;
+        this.intendedNanos = intendedNanos;
+        this.dueNanos = dueNanos;
+        this.started = true;
+    }
+
+    public long getStartNanos() {
+        return startNanos;
+    }
+
+    /**
+     * Intended start of the current iteration
+     */
+    public long getIntendedNanos() {
+        return intendedNanos;
+    }
+
+    /**
+     * When the current iteration was due to start: its intended start with
+     * catch-up, otherwise the previous start plus its pacing
+     */
+    public long getDueNanos() {
+        return dueNanos;
+    }
+
+    /**
+     * Intended start of the next iteration: the current one's plus its pacing
+     */
+    public long getNextIntendedNanos() {
+        return intendedNanos + pacingNanos;
+    }
+
+    /**
+     * When the wait before the next iteration ends ({@link PacingSchedule#waitDeadline})
+     */
+    public long getDeadlineNanos() {
+        return PacingSchedule.waitDeadline(startNanos, getNextIntendedNanos(), pacingNanos, catchUp);
+    }
+
+    public long getPacingNanos() {
+        return pacingNanos;
+    }
+
+    public long getSpinNanos() {
+        return spinNanos;
+    }
+
+    public long getGraceNanos() {
+        return graceNanos;
+    }
+
+    /**
+     * Pick the pacing of the current iteration from a "min" or "min,max" spec
+     *
+     * @throws NumberFormatException if the spec is not valid; the previous spec stays in use
+     */
+    public long choosePacing(String spec) {
+        if (!spec.equals(minSpec) || maxSpec != null) {
+            int comma = spec.indexOf(',');
+            if (comma < 0) {
+                setRange(spec, null, PacingSchedule.parseNanos(spec), -1);
+            } else {
+                setRange(spec, null, PacingSchedule.parseNanos(spec.substring(0, comma)),
+                    PacingSchedule.parseNanos(spec.substring(comma + 1)));
+            }
+        }
+        return nextPacing();
+    }
+
+    /**
+     * Pick the pacing of the current iteration from a minimum and an optional (empty) maximum
+     *
+     * @throws NumberFormatException if a value is not valid; the previous spec stays in use
+     */
+    public long choosePacing(String min, String max) {
+        if (!min.equals(minSpec) || !max.equals(maxSpec)) {
+            String trimmed = max.trim();
+            setRange(min, max, PacingSchedule.parseNanos(min),
+                trimmed.isEmpty() ? -1 : PacingSchedule.parseNanos(trimmed));
+        }
+        return nextPacing();
+    }
+
+    /**
+     * Use a pacing chosen elsewhere for the current iteration
+     */
+    public void setPacingNanos(long pacingNanos) {
+        this.pacingNanos = pacingNanos;
+    }
+
+    private void setRange(String min, String max, long minNanos, long maxNanos) {
+        this.minSpec = min;
+        this.maxSpec = max;
+        this.minNanos = minNanos;
+        this.maxNanos = maxNanos;
+    }
+
+    private long nextPacing() {
+        pacingNanos = maxNanos < 0 ? minNanos : PacingSchedule.between(minNanos, maxNanos);
+        return pacingNanos;
+    }
+
+    /**
+     * The current pacing in seconds, for the {@code pacing} variable; formatted only when it changes
+     */
+    public String getPacingSeconds() {
+        if (formattedNanos != pacingNanos) {
+            formatted = PacingSchedule.formatSeconds(pacingNanos);
+            formattedNanos = pacingNanos;
+        }
+        return formatted;
+    }
+
+    /**
+     * The constant part of this thread's {@code debug_msg}, or null until set
+     */
+    public String getDebugPrefix() {
+        return debugPrefix;
+    }
+
+    public void setDebugPrefix(String debugPrefix) {
+        this.debugPrefix = debugPrefix;
+    }
+
+    /**
+     * The arrival clock this thread takes arrivals from, or null until set
+     */
+    public PacingArrivals getArrivals() {
+        return arrivals;
+    }
+
+    public void setArrivals(PacingArrivals arrivals) {
+        this.arrivals = arrivals;
+    }
+}
@@ -1,25 +1,44 @@
 package com.company;
 
+import com.company.jfr.STSRequestEvent;
+import org.apache.http.Header;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.protocol.HttpClientContext;
 import org.apache.http.client.entity.UrlEncodedFormEntity;
-import org.apache.http.impl.client.HttpClients;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
 import org.apache.http.message.BasicNameValuePair;
 import org.apache.http.util.EntityUtils;
-import org.apache.http.ssl.SSLContextBuilder;
-import org.apache.http.ssl.TrustStrategy;
-import org.apache.http.conn.ssl.NoopHostnameVerifier;
-import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.jmeter.threads.JMeterVariables;
+import org.apache.jorphan.logging.LoggingManager;
 import org.apache.log.Logger;
 
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
 import java.nio.charset.StandardCharsets;
-import java.security.cert.X509Certificate;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 public final class STS {
 
+    private static final Logger LOG = LoggingManager.getLoggerForClass();
+
+    private static final Pattern BODY_PATTERN = Pattern.compile("<body>(.*?)</body>", Pattern.DOTALL);
+    private static final Pattern LINE_SPLIT = Pattern.compile("\\r?\\n|<br\\s*/?>");
+
     /** Main entry point – mirrors the old Groovy signature */
     public static boolean exec(Logger log,
                                JMeterVariables vars,
@@ -28,44 +47,270 @@ public final class STS {
 
         // Parse parameters
         String[] params = cmdLine.split(",");
-        if (params.length < 3) {
+        if (!hasEnoughParameters(params)) {
             log.error("STS: not enough parameters: " + cmdLine);
             return false;
         }
         
-        String action = params[0].trim().toUpperCase();
+        DCU dcu = DCU.init(log, props, vars);
+        return apply(log, vars, params[0], execute(log, props, dcu.getStsHost(), params));
+    }
+
+    /**
+     * Action, file and at least one variable or value; {@code CONSUME,file} needs no more
+     */
+    static boolean hasEnoughParameters(String[] params) {
+        return params.length >= 3 || (params.length == 2 && Action.parse(params[0]) == Action.CONSUME);
+    }
+
+    /**
+     * STS actions, parsed once per command (or once per plan)
+     */
+    enum Action {
+        KEEP, DEL, ADDFIRST, ADDLAST,
+        /** DEL a row for this iteration only; it is returned with ADDLAST when the thread's next iteration starts */
+        LEASE,
+        /** Keep the rows this thread leased from a file instead of returning them */
+        CONSUME;
+
+        boolean isRead() {
+            return this == KEEP || this == DEL || this == LEASE;
+        }
+
+        /** ADD_MODE parameter of /sts/ADD */
+        String addMode() {
+            return this == ADDFIRST ? "FIRST" : "LAST";
+        }
+
+        /**
+         * @return the action, or null if the name is not a known action
+         */
+        static Action parse(String name) {
+            switch (name.trim().toUpperCase()) {
+                case "KEEP": return KEEP;
+                case "DEL": return DEL;
+                case "ADDFIRST": return ADDFIRST;
+                case "ADDLAST": return ADDLAST;
+                case "LEASE": return LEASE;
+                case "CONSUME": return CONSUME;
+                default: return null;
+            }
+        }
+    }
+
+    /**
+     * Apply a result on the calling thread as {@link #exec} does: reads store
+     * their columns or error markers in variables, adds only report success
+     */
+    static boolean apply(Logger log, JMeterVariables vars, String action, STSResult result) {
+        return apply(log, vars, Action.parse(action), result);
+    }
+
+    static boolean apply(Logger log, JMeterVariables vars, Action action, STSResult result) {
+        if (action == Action.CONSUME || (action != null && action.isRead())) {
+            return result.applyTo(log, vars);
+        }
+        if (result.getStatus() == STSResult.Status.INVALID) {
+            log.error("STS: " + result.getMessage());
+        }
+        return result.isOk();
+    }
+
+    /**
+     * Run one parsed STS command without touching JMeter variables. Shared by
+     * {@link #exec} and {@link STSAsync}.
+     *
+     * @param params action, filename, then variable names (KEEP/DEL) or values (ADDFIRST/ADDLAST)
+     */
+    static STSResult execute(Logger log, Properties props, String host, String[] params) {
         String originalFilename = params[1].trim();
         
         // Format filename according to convention
         String filename = formatFilename(originalFilename, props, log);
         
-        DCU dcu = DCU.init(log, props, vars);
-        String host = dcu.getStsHost();
+        Action action = Action.parse(params[0]);
+        if (action == null) {
+            return STSResult.invalid(filename, "unknown action " + params[0].trim().toUpperCase());
+        }
+        
+        String[] rest = new String[params.length - 2];
+        System.arraycopy(params, 2, rest, 0, params.length - 2);
+        return execute(log, props, host, action, filename, originalFilename, rest);
+    }
+
+    /**
+     * Run one STS operation whose action and filename are already resolved
+     *
+     * @param filename formatted (repository-prefixed) filename
+     * @param rest variable names (KEEP/DEL) or values (ADDFIRST/ADDLAST)
+     */
+    static STSResult execute(Logger log, Properties props, String host, Action action,
+                             String filename, String originalFilename, String[] rest) {
+        STSRequestEvent event = new STSRequestEvent();
+        event.begin();
+        // With several hosts in V_STS_HOST, each file lives on the one its name hashes to
+        host = STSHostRing.route(props, host, filename);
+        long start = System.currentTimeMillis();
+        STSResult result = dispatch(log, props, host, action, filename, originalFilename, rest);
+        // HTTP exchanges carry their own timing; prefetched, queued and local operations get it here
+        result = result.timedIfUnset(start, System.currentTimeMillis());
+        event.end();
+        if (event.shouldCommit()) {
+            event.filename = filename;
+            event.action = action.name();
+            event.status = result.getStatus().name();
+            event.httpStatus = result.getHttpStatus();
+            event.host = host;
+            event.bytes = result.getBytes();
+            event.sentBytes = result.getSentBytes();
+            event.connectMillis = result.getConnectTime();
+            event.latencyMillis = result.getLatency();
+            event.waitMillis = Math.max(0, result.getWaitTime());
+            event.commit();
+        }
+        return result;
+    }
+
+    private static STSResult dispatch(Logger log, Properties props, String host, Action action,
+                                      String filename, String originalFilename, String[] rest) {
+        // Leases are tracked on the sampler thread when the result is applied
+        if (action == Action.CONSUME) {
+            return STSResult.consumed(filename);
+        }
+        if (action == Action.LEASE) {
+            if (STSMappedFile.isMapped(props, filename)) {
+                return STSResult.invalid(filename, filename + " is read-only (" + STSMappedFile.MAPPED_FILES + ")");
+            }
+            return dispatch(log, props, host, Action.DEL, filename, originalFilename, rest).asLease();
+        }
+
+        // Read-only reference files are served from a local memory-mapped copy
+        if (STSMappedFile.isMapped(props, filename)) {
+            return execMapped(props, action, filename, originalFilename, rest);
+        }
+
+        // Single-generator runs can keep the queues inside this JVM
+        if (STSLocalEngine.isActive(props)) {
+            return execLocal(props, action, filename, originalFilename, rest);
+        }
+        
         if (host == null) {
-            log.error("STS: V_STS_HOST not available. Cannot connect to Simple Table Server.");
-            return false;
+            return STSResult.invalid(filename, "V_STS_HOST not available. Cannot connect to Simple Table Server.");
         }
 
-        if ("KEEP".equals(action) || "DEL".equals(action)) {
+        if (action.isRead()) {
             // For read operations, remaining parameters are variable names
-            String[] varNames = new String[params.length - 2];
-            System.arraycopy(params, 2, varNames, 0, params.length - 2);
-            return read(log, vars, props, host, filename, "KEEP".equals(action), varNames);
-        } else if ("ADDFIRST".equals(action) || "ADDLAST".equals(action)) {
-            // For add operations, remaining parameters are values to add
-            String[] values = new String[params.length - 2];
-            System.arraycopy(params, 2, values, 0, params.length - 2);
-            String addMode = "ADDFIRST".equals(action) ? "FIRST" : "LAST";
-            return add(log, props, host, filename, addMode, values);
-        }
-        log.error("STS: unknown action " + action);
-        return false;
+            STSResult result = readRemote(log, props, host, action, filename);
+            if (result.isEmptyFile() && STSLongPoll.isEnabledFor(props, filename)) {
+                // Wait for a producer instead of failing the read
+                result = STSLongPoll.await(props, host, filename, result,
+                    () -> readRemote(log, props, host, action, filename));
+            }
+            return result.withVarNames(rest);
+        }
+        // For add operations, remaining parameters are values to add
+        String addMode = action.addMode();
+        if (action == Action.ADDLAST && STSChannel.isChannel(props, filename)
+                && STSChannel.offer(props, host, filename, String.join(",", rest))) {
+            return STSResult.added(filename);
+        }
+        if (STSWriteBehind.isEnabledFor(props, filename)
+                && STSWriteBehind.offer(props, host, filename, addMode, String.join(",", rest))) {
+            return STSResult.added(filename);
+        }
+        return add(log, props, host, filename, addMode, rest);
+    }
+
+    /**
+     * Execute an operation against the in-process engine instead of the server
+     */
+    private static STSResult execLocal(Properties props, Action action,
+                                       String filename, String originalFilename, String[] rest) {
+        if (action.isRead()) {
+            String csvData = STSLocalEngine.read(props, filename, originalFilename, action == Action.KEEP);
+            if (csvData == null && STSLongPoll.isEnabledFor(props, filename)) {
+                return awaitLocal(props, action, filename, originalFilename).withVarNames(rest);
+            }
+            if (csvData == null) {
+                return STSResult.emptyFile(filename).withVarNames(rest);
+            }
+            return STSResult.row(filename, csvData).withVarNames(rest);
+        }
+        STSLocalEngine.add(props, filename, originalFilename, action.addMode(), String.join(",", rest));
+        return STSResult.added(filename);
+    }
+
+    /**
+     * Wait in-process for an ADD to an empty local file
+     */
+    private static STSResult awaitLocal(Properties props, Action action, String filename, String originalFilename) {
+        long start = System.currentTimeMillis();
+        String csvData = null;
+        try {
+            csvData = STSLocalEngine.await(props, filename, originalFilename, action == Action.KEEP,
+                STSLongPoll.timeoutMillis(props));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        long end = System.currentTimeMillis();
+        STSLongPoll.record(filename, end - start, csvData != null);
+        STSResult result = csvData == null ? STSResult.emptyFile(filename) : STSResult.row(filename, csvData);
+        return result.waited(0, end, end - start);
+    }
+
+    /**
+     * Read a row from a memory-mapped file listed in sts.mapped.files
+     */
+    private static STSResult execMapped(Properties props, Action action,
+                                        String filename, String originalFilename, String[] rest) {
+        if (!action.isRead()) {
+            return STSResult.invalid(filename, filename + " is read-only (" + STSMappedFile.MAPPED_FILES + ")");
+        }
+        try {
+            String csvData = STSMappedFile.read(props, filename, originalFilename, action == Action.KEEP);
+            if (csvData == null) {
+                return STSResult.emptyFile(filename).withVarNames(rest);
+            }
+            return STSResult.row(filename, csvData).withVarNames(rest);
+        } catch (IOException e) {
+            return STSResult.exception(filename, e).withVarNames(rest);
+        }
     }
 
     /* --- private helpers implementing the STS API --- */
 
-    private static boolean read(Logger log, JMeterVariables vars, Properties props,
-                                String host, String filename, boolean keep, String[] varNames) {
+    private static STSResult readRemote(Logger log, Properties props, String host, Action action, String filename) {
+        if (STSChannel.isChannel(props, filename)) {
+            // Rows added by thread groups in this JVM first; spilled and other generators' rows from STS
+            String csvData = STSChannel.poll(props, host, filename, action == Action.KEEP);
+            if (csvData != null) {
+                return STSResult.row(filename, csvData);
+            }
+        }
+        if (action == Action.DEL && STSThreadLease.isEnabledFor(props, filename)) {
+            return readLeased(log, props, host, filename);
+        }
+        return read(log, props, host, filename, action == Action.KEEP);
+    }
+
+    static STSResult read(Logger log, Properties props, String host, String filename, boolean keep) {
+        if (STSPrefetchBuffer.isEnabledFor(props, filename)) {
+            return readPrefetched(log, props, host, filename, keep);
+        }
+        if (keep && STSHedging.isEnabled(props)) {
+            // A duplicate KEEP only rotates the row once more, so a slow read can be raced
+            return STSHedging.forHost(props, host).read(filename,
+                sending -> readOnce(log, props, host, filename, true, sending));
+        }
+        return readOnce(log, props, host, filename, keep, null);
+    }
+
+    /**
+     * @param sending called with the request before it is sent (hedged reads); may be null
+     */
+    private static STSResult readOnce(Logger log, Properties props, String host, String filename, boolean keep,
+                                      Consumer<HttpUriRequest> sending) {
+        HttpGet request = null;
         try {
             // Determine protocol based on sts.use.https property
             boolean useHttps = Boolean.parseBoolean(props.getProperty("sts.use.https", "false"));
@@ -83,96 +328,93 @@ public final class STS {
             log.debug("FILENAME: " + filename);
             log.debug("=========================");
             
-            // Create HTTP client and execute request
-            var httpClient = createTrustAllHttpClient();
-            var httpGet = new HttpGet(stsUrl);
-            
-            var response = httpClient.execute(httpGet);
-            int statusCode = response.getStatusLine().getStatusCode();
-            String statusLine = response.getStatusLine().toString();
-            
-            String responseBody = EntityUtils.toString(response.getEntity(), StandardCharsets.UTF_8);
+            // Execute request on the shared pooled transport
+            request = new HttpGet(stsUrl);
+            if (sending != null) {
+                sending.accept(request);
+            }
+            Exchange exchange = Exchange.send(props, host, filename, request, keep);
+            int statusCode = exchange.statusCode;
+            String responseBody = exchange.body;
             
             log.debug("==== STS READ RESPONSE ====");
-            log.debug("Status: " + statusLine);
+            log.debug("Status: " + exchange.statusLine);
             log.debug("Status Code: " + statusCode);
             log.debug("Response Body: " + responseBody);
             log.debug("==========================");
             
             if (statusCode != 200) {
-                log.error("STS request failed with status code: " + statusCode);
-                // Set error message in all variables
-                String errorMsg = filename + "-HTTP_ERROR_" + statusCode;
-                for (String varName : varNames) {
-                    vars.put(varName, errorMsg);
-                    log.info("Set error value for variable " + varName + ": " + errorMsg);
-                }
-                return false;
+                return exchange.timed(STSResult.httpError(filename, statusCode));
             }
             
             // Check for empty file response
             if (responseBody.contains("<title>KO</title>") && responseBody.contains("Error : No more line !")) {
-                log.warn("No more data available in file: " + filename);
-                String emptyFileMsg = filename + "-EMPTY_FILE_ERROR";
-                for (String varName : varNames) {
-                    vars.put(varName, emptyFileMsg);
-                    log.info("Set empty file error value for variable " + varName + ": " + emptyFileMsg);
-                }
-                vars.put("STS_FILE_EMPTY", "true");
-                vars.put("STS_FILE_EMPTY_NAME", filename);
-                return false;
+                return exchange.timed(STSResult.emptyFile(filename));
             }
             
             // Extract data from HTML response
-            String bodyPattern = "<body>(.*?)</body>";
-            java.util.regex.Pattern pattern = java.util.regex.Pattern.compile(bodyPattern, java.util.regex.Pattern.DOTALL);
-            java.util.regex.Matcher matcher = pattern.matcher(responseBody);
+            String csvData = extractBody(responseBody);
             
-            if (!matcher.find()) {
-                log.error("Could not extract data from STS response");
-                String parseErrorMsg = filename + "-PARSE_ERROR";
-                for (String varName : varNames) {
-                    vars.put(varName, parseErrorMsg);
-                    log.info("Set parse error value for variable " + varName + ": " + parseErrorMsg);
-                }
-                return false;
+            if (csvData == null) {
+                return exchange.timed(STSResult.parseError(filename, "Could not extract data from STS response"));
             }
             
-            String csvData = matcher.group(1).trim();
             log.info("Extracted CSV data: " + csvData);
             
-            // Split CSV data into columns
-            String[] columns = csvData.split(",");
-            
-            // Store each column in the corresponding variable
-            for (int i = 0; i < varNames.length && i < columns.length; i++) {
-                vars.put(varNames[i], columns[i].trim());
-                log.debug("Stored column " + (i+1) + " in variable " + varNames[i] + ": " + columns[i].trim());
+            return exchange.timed(STSResult.row(filename, csvData));
+        } catch (STSCircuitOpenException e) {
+            return STSResult.circuitOpen(filename, e.getMessage());
+        } catch (Exception e) {
+            if (request != null && request.isAborted()) {
+                // A hedge of this read answered first
+                return STSResult.exception(filename, e);
             }
-            
-            // Clear the empty file flag if it exists
-            vars.put("STS_FILE_EMPTY", "false");
-            
-            return true;
+            log.error("Error reading from STS: " + e.getMessage(), e);
+            return STSResult.exception(filename, e);
+        }
+    }
+
+    /**
+     * Serve a read from the shared per-file prefetch buffer instead of a
+     * per-row round trip
+     */
+    private static STSResult readPrefetched(Logger log, Properties props, String host, String filename, boolean keep) {
+        try {
+            String csvData = STSPrefetchBuffer.forFile(props, host, filename, keep).take();
+            if (csvData == null) {
+                return STSResult.emptyFile(filename);
+            }
+            log.debug("Prefetched CSV data: " + csvData);
+            return STSResult.row(filename, csvData);
+        } catch (STSCircuitOpenException e) {
+            return STSResult.circuitOpen(filename, e.getMessage());
         } catch (Exception e) {
             log.error("Error reading from STS: " + e.getMessage(), e);
-            
-            // Set exception error message in all variables
-            String exceptionMsg = filename + "-EXCEPTION_ERROR: " + e.getMessage().substring(0, Math.min(50, e.getMessage().length()));
-            for (String varName : varNames) {
-                vars.put(varName, exceptionMsg);
-                log.info("Set exception error value for variable " + varName + ": " + exceptionMsg);
+            return STSResult.exception(filename, e);
+        }
+    }
+
+    /**
+     * Serve a DEL from the calling thread's leased block
+     */
+    private static STSResult readLeased(Logger log, Properties props, String host, String filename) {
+        try {
+            String csvData = STSThreadLease.take(props, host, filename);
+            if (csvData == null) {
+                return STSResult.emptyFile(filename);
             }
-            
-            vars.put("STS_ERROR", "true");
-            vars.put("STS_ERROR_MESSAGE", e.getMessage());
-            
-            return false;
+            log.debug("Leased CSV data: " + csvData);
+            return STSResult.row(filename, csvData);
+        } catch (STSCircuitOpenException e) {
+            return STSResult.circuitOpen(filename, e.getMessage());
+        } catch (Exception e) {
+            log.error("Error reading from STS: " + e.getMessage(), e);
+            return STSResult.exception(filename, e);
         }
     }
 
-    private static boolean add(Logger log, Properties props, String host, String filename,
-                               String addMode, String[] values) {
+    static STSResult add(Logger log, Properties props, String host, String filename,
+                         String addMode, String[] values) {
         try {
             // Create the CSV line from values
             String line = String.join(",", values);
@@ -192,8 +434,7 @@ public final class STS {
             log.debug("LINE: " + line);
             log.debug("========================");
             
-            // Create HTTP client and POST request
-            var httpClient = createTrustAllHttpClient();
+            // Build POST request for the shared pooled transport
             var httpPost = new HttpPost(stsUrl);
             
             // Add form parameters
@@ -205,35 +446,312 @@ public final class STS {
             
             // Execute the request
             log.info("Executing POST request to STS...");
-            var response = httpClient.execute(httpPost);
-            int statusCode = response.getStatusLine().getStatusCode();
-            String statusLine = response.getStatusLine().toString();
-            
-            String responseBody = EntityUtils.toString(response.getEntity(), StandardCharsets.UTF_8);
+            Exchange exchange = Exchange.send(props, host, filename, httpPost, false);
+            int statusCode = exchange.statusCode;
+            String responseBody = exchange.body;
             
             log.debug("==== STS ADD RESPONSE ====");
-            log.debug("Status: " + statusLine);
+            log.debug("Status: " + exchange.statusLine);
             log.debug("Status Code: " + statusCode);
             log.debug("Response Body: " + responseBody);
             log.debug("=========================");
             
             if (statusCode != 200) {
                 log.error("STS add request failed with status code: " + statusCode);
-                return false;
+                return exchange.timed(STSResult.httpError(filename, statusCode));
             }
             
             // Check if response contains success message
             if (responseBody.contains("<title>OK</title>")) {
                 log.info("STS add operation successful");
-                return true;
+                return exchange.timed(STSResult.added(filename));
             } else {
                 log.error("STS add request did not return OK");
-                return false;
+                return exchange.timed(STSResult.parseError(filename, "STS add request did not return OK"));
             }
+        } catch (STSCircuitOpenException e) {
+            return STSResult.circuitOpen(filename, e.getMessage());
         } catch (Exception e) {
             log.error("Error adding to STS: " + e.getMessage(), e);
+            return STSResult.exception(filename, e);
+        }
+    }
+
+    /**
+     * Read up to {@code count} rows in one round trip using READMULTI.
+     * Returns an empty list when the file has no rows left.
+     */
+    static List<String> readMulti(Properties props, String host, String filename,
+                                  boolean keep, int count) throws IOException {
+        String keepValue = keep ? "TRUE" : "FALSE";
+        String url = baseUrl(props, host) + "/sts/READMULTI?READ_MODE=FIRST&KEEP=" + keepValue
+            + "&NB_LINES=" + count + "&FILENAME=" + filename;
+        String body = httpGet(props, host, filename, url, keep);
+
+        if (body.contains("<title>KO</title>")) {
+            // READMULTI refuses more lines than the file holds - retry with the current length
+            int available = length(props, host, filename);
+            if (available <= 0) {
+                return new ArrayList<>();
+            }
+            if (available >= count) {
+                throw new IOException("STS READMULTI failed for " + filename);
+            }
+            return readMulti(props, host, filename, keep, available);
+        }
+
+        String csvData = extractBody(body);
+        if (csvData == null) {
+            throw new IOException("Could not extract data from STS READMULTI response");
+        }
+        List<String> rows = new ArrayList<>();
+        for (String row : LINE_SPLIT.split(csvData)) {
+            String trimmed = row.trim();
+            if (!trimmed.isEmpty()) {
+                rows.add(trimmed);
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Number of rows currently held by the server for a file, or -1 if the
+     * server does not have it loaded
+     */
+    static int length(Properties props, String host, String filename) throws IOException {
+        return countCommand(props, host, "LENGTH", filename, true);
+    }
+
+    /**
+     * Have the server (re)load a file from its dataset directory; returns the
+     * lines loaded, or -1 if the server refused
+     */
+    static int initFile(Properties props, String host, String filename) throws IOException {
+        return countCommand(props, host, "INITFILE", filename, false);
+    }
+
+    /**
+     * Have the server write a file back to its dataset directory; returns the
+     * lines written, or -1 if the file is not loaded
+     */
+    static int save(Properties props, String host, String filename) throws IOException {
+        return countCommand(props, host, "SAVE", filename, false);
+    }
+
+    private static int countCommand(Properties props, String host, String command, String filename,
+                                    boolean idempotent) throws IOException {
+        String body = httpGet(props, host, filename,
+            baseUrl(props, host) + "/sts/" + command + "?FILENAME=" + filename, idempotent);
+        if (body.contains("<title>KO</title>")) {
+            return -1;
+        }
+        String value = extractBody(body);
+        if (value == null) {
+            throw new IOException("Unexpected STS " + command + " response for " + filename);
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IOException("Unexpected STS " + command + " response: " + value);
+        }
+    }
+
+    /**
+     * Flush client-side STS state (in-flight async calls, channel rows,
+     * iteration leases, queued ADDs, prefetched and thread-leased rows, local
+     * queues) and close the shared transport. Called from the test-ended hooks.
+     */
+    public static void testEnded(Properties props) {
+        STSAsync.shutdown();
+        STSChannel.flush(props);
+        STSIterationLease.releaseAll(props);
+        STSWriteBehind.drain();
+        STSPrefetchBuffer.releaseAll();
+        STSThreadLease.releaseAll(props);
+        STSHedging.clear();
+        STSLongPoll.clear();
+        STSRateLimiter.clear();
+        STSMappedFile.clear();
+        STSLocalEngine.clear();
+        STSTransport.shutdown();
+    }
+
+    /**
+     * Whether a comma-separated property list names this (repository-prefixed)
+     * file. A listed name matches if it is the file's name or formats to it, so
+     * {@code orders.csv} lists {@code MYREPO_orders.csv} but not
+     * {@code MYREPO_old_orders.csv}.
+     */
+    static boolean isFileListed(String files, String filename, Properties props) {
+        if (files == null || files.trim().isEmpty()) {
             return false;
         }
+        boolean prefixed = props.getProperty("GIT_REPO_NAME") != null;
+        for (String name : files.trim().split("\\s*,\\s*")) {
+            if (filename.equalsIgnoreCase(name)
+                    || (prefixed && filename.equalsIgnoreCase(formatFilename(name, props, LOG)))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Whether a request that failed with {@code e} never reached the server:
+     * the connection was refused or not made in time. A request waiting for a
+     * pooled connection is not counted, as retrying it only adds to the queue.
+     */
+    static boolean isNotSent(Exception e) {
+        return (e instanceof ConnectException || e instanceof ConnectTimeoutException)
+            && !(e instanceof ConnectionPoolTimeoutException);
+    }
+
+    private static String baseUrl(Properties props, String host) {
+        // Determine protocol based on sts.use.https property
+        boolean useHttps = Boolean.parseBoolean(props.getProperty("sts.use.https", "false"));
+        return (useHttps ? "https" : "http") + "://" + host;
+    }
+
+    private static String httpGet(Properties props, String host, String filename, String url,
+                                  boolean idempotent) throws IOException {
+        Exchange exchange = Exchange.send(props, host, filename, new HttpGet(url), idempotent);
+        if (exchange.statusCode != 200) {
+            throw new IOException("STS request failed with status code: " + exchange.statusCode);
+        }
+        return exchange.body;
+    }
+
+    /**
+     * One request/response on the shared transport, with its timing and size
+     */
+    private static final class Exchange {
+        final int statusCode;
+        final String statusLine;
+        final String body;
+        final long start;
+        final long end;
+        final long connect;
+        final long tls;
+        final long latency;
+        final long received;
+        final long sent;
+
+        private Exchange(HttpRequest request, HttpResponse response, byte[] body, long start, long latency,
+                         long end, HttpClientContext context) {
+            this.statusCode = response.getStatusLine().getStatusCode();
+            this.statusLine = response.getStatusLine().toString();
+            this.body = new String(body, StandardCharsets.UTF_8);
+            this.start = start;
+            this.end = end;
+            this.latency = latency;
+            Long connectMillis = context.getAttribute(STSTransport.CONNECT_MILLIS, Long.class);
+            Long tlsMillis = context.getAttribute(STSTransport.TLS_MILLIS, Long.class);
+            this.connect = connectMillis == null ? 0 : connectMillis;
+            this.tls = tlsMillis == null ? 0 : tlsMillis;
+            this.received = headerBytes(statusLine, response.getAllHeaders()) + body.length;
+            // The context holds the request as sent, with the headers the client added
+            HttpRequest sentRequest = context.getRequest() != null ? context.getRequest() : request;
+            long entityBytes = 0;
+            if (request instanceof HttpEntityEnclosingRequest && ((HttpEntityEnclosingRequest) request).getEntity() != null) {
+                entityBytes = Math.max(0, ((HttpEntityEnclosingRequest) request).getEntity().getContentLength());
+            }
+            this.sent = headerBytes(sentRequest.getRequestLine().toString(), sentRequest.getAllHeaders()) + entityBytes;
+        }
+
+        /**
+         * Send a request through the host's circuit breaker. Idempotent requests
+         * are retried on I/O errors and 5xx with jittered backoff; others only
+         * when the connection could not be opened, since nothing reached the
+         * server. Timing covers all attempts, but not the wait for the rate
+         * limiter, which is taken once before the first attempt.
+         *
+         * @throws STSCircuitOpenException if the breaker is open (nothing was sent)
+         */
+        static Exchange send(Properties props, String host, String filename, HttpUriRequest request,
+                             boolean idempotent) throws IOException {
+            STSTransport transport = STSTransport.get(props);
+            STSCircuitBreaker breaker = transport.breaker(host);
+            STSRateLimiter.acquire(props, filename);
+            long start = System.currentTimeMillis();
+            for (int attempt = 1; ; attempt++) {
+                if (!breaker.tryAcquire()) {
+                    throw new STSCircuitOpenException(host);
+                }
+                long attemptStart = System.currentTimeMillis();
+                Exchange exchange = null;
+                boolean recorded = false;
+                try {
+                    exchange = sendOnce(transport, request, start);
+                } catch (IOException e) {
+                    // Recorded before any retry wait, which is not part of the call; an
+                    // aborted request (a hedge answered first) says nothing against the server
+                    boolean aborted = request.isAborted();
+                    breaker.record(!aborted, System.currentTimeMillis() - attemptStart);
+                    recorded = true;
+                    if (aborted) {
+                        throw e;
+                    }
+                    if ((idempotent || isNotSent(e)) && backoff(transport, attempt)) {
+                        continue;
+                    }
+                    throw e;
+                } finally {
+                    if (exchange == null && !recorded) {
+                        // Unchecked failure: still settles a HALF_OPEN probe
+                        breaker.record(true, System.currentTimeMillis() - attemptStart);
+                    }
+                }
+                boolean serverError = exchange.statusCode >= 500;
+                breaker.record(serverError, exchange.end - attemptStart);
+                if (serverError && idempotent && backoff(transport, attempt)) {
+                    continue;
+                }
+                return exchange;
+            }
+        }
+
+        private static Exchange sendOnce(STSTransport transport, HttpUriRequest request, long start) throws IOException {
+            HttpClientContext context = HttpClientContext.create();
+            try (CloseableHttpResponse response = transport.client().execute(request, context)) {
+                long latency = System.currentTimeMillis() - start;
+                byte[] body = response.getEntity() == null ? new byte[0] : EntityUtils.toByteArray(response.getEntity());
+                return new Exchange(request, response, body, start, latency, System.currentTimeMillis(), context);
+            }
+        }
+
+        /**
+         * Wait before the next attempt; false when no retries are left
+         */
+        private static boolean backoff(STSTransport transport, int attempt) throws IOException {
+            long delay = transport.retryDelay(attempt);
+            if (delay < 0) {
+                return false;
+            }
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting to retry STS request");
+            }
+            return true;
+        }
+
+        STSResult timed(STSResult result) {
+            return result.timed(start, end, connect, tls, latency, received, sent);
+        }
+
+        private static long headerBytes(String firstLine, Header[] headers) {
+            long size = firstLine.length() + 2 + 2; // CRLF after the first line and after the headers
+            for (Header header : headers) {
+                size += header.getName().length() + 2 + (header.getValue() == null ? 0 : header.getValue().length()) + 2;
+            }
+            return size;
+        }
+    }
+
+    private static String extractBody(String responseBody) {
+        Matcher matcher = BODY_PATTERN.matcher(responseBody);
+        return matcher.find() ? matcher.group(1).trim() : null;
     }
 
     /**
@@ -241,80 +759,80 @@ public final class STS {
      * - Should start with repository name in uppercase (without jm_ prefix and .git extension)
      * - If it doesn't, add the prefix
      * - If it has the prefix but in wrong case, correct it
+     *
+     * Results are cached per GIT_REPO_NAME, so the prefix and its pattern are
+     * derived once per file rather than on every call.
      */
-    private static String formatFilename(String filename, Properties props, Logger log) {
-        try {
-            // Get repository name from properties
-            String repoName = props.getProperty("GIT_REPO_NAME");
-            if (repoName == null) {
-                log.warn("GIT_REPO_NAME property not set. Cannot format filename according to convention.");
-                return filename;
-            }
+    static String formatFilename(String filename, Properties props, Logger log) {
+        // Get repository name from properties
+        String repoName = props.getProperty("GIT_REPO_NAME");
+        if (repoName == null) {
+            log.warn("GIT_REPO_NAME property not set. Cannot format filename according to convention.");
+            return filename;
+        }
+        
+        FilenameCache cache = filenameCache;
+        if (!repoName.equals(cache.repoName)) {
+            cache = new FilenameCache(repoName);
+            filenameCache = cache;
+        }
+        String formatted = cache.filenames.get(filename);
+        if (formatted == null) {
+            formatted = cache.format(filename, log);
+            cache.filenames.put(filename, formatted);
+        }
+        return formatted;
+    }
+
+    private static volatile FilenameCache filenameCache = new FilenameCache("");
+
+    /**
+     * Repository prefix and formatted filenames for one GIT_REPO_NAME
+     */
+    private static final class FilenameCache {
+        final String repoName;
+        final Map<String, String> filenames = new ConcurrentHashMap<>();
+        private final String prefix;
+        private final Pattern prefixPattern;
+
+        FilenameCache(String repoName) {
+            this.repoName = repoName;
             
             // Process repository name:
             // 1. Remove .git extension if present
-            if (repoName.toLowerCase().endsWith(".git")) {
-                repoName = repoName.substring(0, repoName.length() - 4);
+            String name = repoName;
+            if (name.toLowerCase().endsWith(".git")) {
+                name = name.substring(0, name.length() - 4);
             }
             
             // 2. Remove jm_ or JM_ prefix if present
-            if (repoName.toLowerCase().startsWith("jm_")) {
-                repoName = repoName.substring(3);
+            if (name.toLowerCase().startsWith("jm_")) {
+                name = name.substring(3);
             }
             
             // 3. Convert to uppercase
-            String prefix = repoName.toUpperCase();
-            
-            log.debug("Repository prefix for filenames: " + prefix);
-            
+            this.prefix = name.toUpperCase();
+            this.prefixPattern = Pattern.compile("^" + Pattern.quote(prefix) + "_", Pattern.CASE_INSENSITIVE);
+        }
+
+        String format(String filename, Logger log) {
             // Check if filename already has the prefix (case insensitive)
-            String prefixPattern = "(?i)^" + prefix + "_";
-            if (filename.matches(prefixPattern + ".*")) {
+            Matcher matcher = prefixPattern.matcher(filename);
+            if (matcher.lookingAt()) {
                 // Filename has the prefix but might be in wrong case
                 // Replace with correct case
-                String correctedFilename = filename.replaceFirst(prefixPattern, prefix + "_");
+                String correctedFilename = prefix + "_" + filename.substring(matcher.end());
                 
                 if (!correctedFilename.equals(filename)) {
                     log.info("Corrected filename case: " + filename + " -> " + correctedFilename);
                 }
                 
                 return correctedFilename;
-            } else {
-                // Filename doesn't have the prefix, add it
-                String newFilename = prefix + "_" + filename;
-                log.info("Added repository prefix to filename: " + filename + " -> " + newFilename);
-                return newFilename;
             }
-        } catch (Exception e) {
-            log.error("Error formatting filename: " + e.getMessage());
-            // Return original filename if any error occurs
-            return filename;
-        }
-    }
-
-    /**
-     * Create an HTTP client that ignores SSL certificate validation
-     */
-    private static org.apache.http.client.HttpClient createTrustAllHttpClient() {
-        try {
-            // Create a simple SSLContext that trusts all certificates
-            var sslContext = SSLContextBuilder.create()
-                .loadTrustMaterial(null, new TrustStrategy() {
-                    @Override
-                    public boolean isTrusted(X509Certificate[] chain, String authType) {
-                        return true;
-                    }
-                })
-                .build();
-                
-            // Create and return an HttpClient with the custom SSLContext
-            return HttpClients.custom()
-                .setSSLContext(sslContext)
-                .setSSLHostnameVerifier(NoopHostnameVerifier.INSTANCE)
-                .build();
-        } catch (Exception e) {
-            // Fallback to default client if SSL setup fails
-            return HttpClients.createDefault();
+            // Filename doesn't have the prefix, add it
+            String newFilename = prefix + "_" + filename;
+            log.info("Added repository prefix to filename: " + filename + " -> " + newFilename);
+            return newFilename;
         }
     }
 }
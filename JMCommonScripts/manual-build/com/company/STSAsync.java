@@ -0,0 +1,172 @@
+package com.company;
+
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Asynchronous STS API.
+ *
+ * Each call returns immediately with a future of the {@link STSResult}; the
+ * HTTP round trip runs on a dedicated STS I/O executor, so a script that needs
+ * rows from several files can start all reads and wait once:
+ *
+ * <pre>
+ *     import com.company.STSAsync
+ *
+ *     def app  = STSAsync.exec(props, "KEEP,applications.csv,APP_ID,Passport_Number")
+ *     def user = STSAsync.exec(props, "DEL,users.csv,USERNAME,PASSWORD")
+ *     app.join().applyTo(log, vars)
+ *     user.join().applyTo(log, vars)
+ * </pre>
+ *
+ * Results are applied to variables by the caller: JMeterVariables belong to
+ * one sampler thread and must not be written from the I/O threads. Write-behind,
+ * prefetch and the in-process engine apply exactly as for {@link STS#exec},
+ * which accepts the same commands (including {@code CONSUME,file}); a LEASE
+ * or CONSUME takes effect for the thread that applies its result. Rows of
+ * files read through thread leases come from the calling thread's leases.
+ *
+ * <pre>
+ *     sts.async.threads=32     (I/O threads; idle threads exit after a minute)
+ * </pre>
+ */
+public final class STSAsync {
+
+    private static final Logger log = LoggingManager.getLoggerForClass();
+
+    public static final String ASYNC_THREADS = "sts.async.threads";
+
+    private static ExecutorService executor;
+
+    private STSAsync() {}
+
+    /**
+     * Run an STS command ("KEEP,file.csv,VAR1,VAR2", "ADDLAST,file.csv,v1,v2", ...)
+     * on the I/O executor
+     */
+    public static CompletableFuture<STSResult> exec(Properties props, String cmdLine) {
+        String[] params = cmdLine.split(",");
+        if (!STS.hasEnoughParameters(params)) {
+            return CompletableFuture.completedFuture(
+                STSResult.invalid(null, "not enough parameters: " + cmdLine));
+        }
+        return submit(props, params);
+    }
+
+    /**
+     * Read the head row of a file (KEEP puts it back at the tail, DEL removes it)
+     */
+    public static CompletableFuture<STSResult> read(Properties props, String filename, boolean keep) {
+        return submit(props, new String[] { keep ? "KEEP" : "DEL", filename });
+    }
+
+    /**
+     * Add a row at the head ({@code addFirst}) or tail of a file
+     */
+    public static CompletableFuture<STSResult> add(Properties props, String filename, boolean addFirst, String... values) {
+        String[] params = new String[values.length + 2];
+        params[0] = addFirst ? "ADDFIRST" : "ADDLAST";
+        params[1] = filename;
+        System.arraycopy(values, 0, params, 2, values.length);
+        return submit(props, params);
+    }
+
+    private static CompletableFuture<STSResult> submit(Properties props, String[] params) {
+        // Host is read here rather than through DCU.init, which would reset DCU's shared vars
+        String host = props.getProperty("V_STS_HOST");
+        // The I/O threads belong to no thread group: lease rows for the caller
+        String owner = STSThreadLease.owner();
+        return CompletableFuture.supplyAsync(
+            STSThreadLease.onBehalfOf(owner, () -> STS.execute(log, props, host, params)), executor(props));
+    }
+
+    /**
+     * Hand an already-resolved operation to the I/O executor. The caller can
+     * still run it with {@link Offloaded#run} if no I/O thread has taken it
+     * yet, so a busy executor delays the operation but never strands it.
+     */
+    static Offloaded offload(Properties props, Supplier<STSResult> operation) {
+        Offloaded offloaded = new Offloaded(STSThreadLease.onBehalfOf(STSThreadLease.owner(), operation));
+        try {
+            executor(props).execute(offloaded);
+        } catch (RejectedExecutionException e) {
+            offloaded.run(); // executor shut down at test end
+        }
+        return offloaded;
+    }
+
+    private static synchronized ExecutorService executor(Properties props) {
+        if (executor == null) {
+            int threads = Math.max(1, STSTransport.intProperty(props, ASYNC_THREADS, 32));
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "STS-io-" + count.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+            pool.allowCoreThreadTimeOut(true);
+            executor = pool;
+        }
+        return executor;
+    }
+
+    /**
+     * Let in-flight operations finish and release the I/O threads (test end)
+     */
+    static void shutdown() {
+        ExecutorService current;
+        synchronized (STSAsync.class) {
+            current = executor;
+            executor = null;
+        }
+        if (current != null) {
+            current.shutdown();
+            try {
+                current.awaitTermination(30, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * An operation run once, by an I/O thread or by the caller, whichever gets to it first
+     */
+    static final class Offloaded extends CompletableFuture<STSResult> implements Runnable {
+        private final Supplier<STSResult> operation;
+        private final AtomicBoolean claimed = new AtomicBoolean();
+
+        private Offloaded(Supplier<STSResult> operation) {
+            this.operation = operation;
+        }
+
+        @Override
+        public void run() {
+            if (!claimed.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                complete(operation.get());
+            } catch (RuntimeException e) {
+                completeExceptionally(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package com.company;
+
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-JVM producer/consumer channel for STS files.
+ *
+ * When one thread group ADDLASTs to a file that another thread group on the
+ * same generator DELs from, every row makes two HTTP trips just to move
+ * between threads of one JVM. Files listed in {@code sts.channel.files} are
+ * passed through a bounded lock-free queue instead: ADDLAST puts the row in
+ * the queue and KEEP/DEL takes it from there. STS is still used around it:
+ *
+ * <ul>
+ *     <li>a row that does not fit in a full queue spills to STS as a normal ADDLAST</li>
+ *     <li>a read of an empty queue falls back to STS, so spilled rows and rows
+ *     added by other generators are still read</li>
+ *     <li>ADDFIRST always goes to STS (the queue is FIFO only)</li>
+ *     <li>rows still queued when the test ends are flushed to STS with ADDLAST</li>
+ * </ul>
+ *
+ * <pre>
+ *     sts.channel.files=orders.csv
+ *     sts.channel.capacity=10000      (rows per file, rounded up to a power of two)
+ * </pre>
+ */
+public final class STSChannel {
+
+    private static final Logger log = LoggingManager.getLoggerForClass();
+
+    public static final String CHANNEL_FILES = "sts.channel.files";
+    public static final String CHANNEL_CAPACITY = "sts.channel.capacity";
+
+    private static final Map<String, STSChannel> channels = new ConcurrentHashMap<>();
+
+    private final String host;
+    private final String filename;
+    private final Ring ring;
+
+    private final LongAdder passed = new LongAdder();
+    private final LongAdder spilled = new LongAdder();
+    private final LongAdder reads = new LongAdder();
+
+    private STSChannel(String host, String filename, int capacity) {
+        this.host = host;
+        this.filename = filename;
+        this.ring = new Ring(capacity);
+    }
+
+    /**
+     * Whether this (formatted) filename is passed between threads in-process
+     */
+    public static boolean isChannel(Properties props, String filename) {
+        return STS.isFileListed(props.getProperty(CHANNEL_FILES), filename, props);
+    }
+
+    /**
+     * Queue a row added with ADDLAST
+     *
+     * @return false if the queue is full - the caller should then add the row to STS
+     */
+    public static boolean offer(Properties props, String host, String filename, String line) {
+        STSChannel channel = forFile(props, host, filename);
+        if (channel.ring.offer(line)) {
+            channel.passed.increment();
+            return true;
+        }
+        channel.spilled.increment();
+        return false;
+    }
+
+    /**
+     * Take the oldest queued row. KEEP puts it back at the tail (or spills it
+     * to STS if producers have filled the queue in the meantime).
+     *
+     * @return the row, or null if nothing is queued - the caller should then read from STS
+     */
+    public static String poll(Properties props, String host, String filename, boolean keep) {
+        STSChannel channel = channels.get(filename);
+        if (channel == null) {
+            return null;
+        }
+        String row = channel.ring.poll();
+        if (row == null) {
+            return null;
+        }
+        channel.reads.increment();
+        if (keep && !channel.ring.offer(row)) {
+            channel.spilled.increment();
+            spill(props, channel, row);
+        }
+        return row;
+    }
+
+    /**
+     * Whether rows are queued in-process for this file
+     */
+    public static boolean hasRows(String filename) {
+        STSChannel channel = channels.get(filename);
+        return channel != null && channel.ring.size() > 0;
+    }
+
+    /**
+     * Flush every queued row to STS and drop the channels (test end)
+     */
+    public static void flush(Properties props) {
+        for (STSChannel channel : channels.values()) {
+            int flushed = 0;
+            for (String row; (row = channel.ring.poll()) != null; ) {
+                spill(props, channel, row);
+                flushed++;
+            }
+            log.info("STS channel " + channel.filename + ": passed=" + channel.passed.sum() + ", reads="
+                + channel.reads.sum() + ", spilled=" + channel.spilled.sum() + ", flushed=" + flushed);
+        }
+        channels.clear();
+    }
+
+    private static STSChannel forFile(Properties props, String host, String filename) {
+        STSChannel channel = channels.get(filename);
+        if (channel != null) {
+            return channel;
+        }
+        int capacity = Math.max(2, STSTransport.intProperty(props, CHANNEL_CAPACITY, 10000));
+        return channels.computeIfAbsent(filename, k -> new STSChannel(host, filename, capacity));
+    }
+
+    /**
+     * ADDLAST a row to STS, written behind if that is enabled for the file
+     */
+    private static void spill(Properties props, STSChannel channel, String row) {
+        if (STSWriteBehind.isEnabledFor(props, channel.filename)
+                && STSWriteBehind.offer(props, channel.host, channel.filename, "LAST", row)) {
+            return;
+        }
+        STSResult result = STS.add(log, props, channel.host, channel.filename, "LAST", new String[] { row });
+        if (!result.isOk()) {
+            log.error("STS channel " + channel.filename + ": could not add row to STS: " + result.getMessage());
+        }
+    }
+
+    /**
+     * Bounded multi-producer multi-consumer ring (Vyukov). Each slot has a
+     * sequence number telling producers and consumers whose turn it is, so
+     * offer and poll only CAS the tail or head counter and never lock.
+     */
+    private static final class Ring {
+        private final int mask;
+        private final AtomicReferenceArray<String> slots;
+        private final AtomicLongArray sequences;
+        private final AtomicLong head = new AtomicLong();
+        private final AtomicLong tail = new AtomicLong();
+
+        Ring(int capacity) {
+            int size = Integer.highestOneBit(Math.min(capacity, 1 << 30) - 1) << 1;
+            mask = size - 1;
+            slots = new AtomicReferenceArray<>(size);
+            sequences = new AtomicLongArray(size);
+            for (int i = 0; i < size; i++) {
+                sequences.set(i, i);
+            }
+        }
+
+        boolean offer(String row) {
+            long position = tail.get();
+            while (true) {
+                int slot = (int) position & mask;
+                long gap = sequences.get(slot) - position;
+                if (gap == 0) {
+                    if (tail.compareAndSet(position, position + 1)) {
+                        slots.lazySet(slot, row);
+                        // Publishes the row to the consumer of this slot
+                        sequences.set(slot, position + 1);
+                        return true;
+                    }
+                    position = tail.get();
+                } else if (gap < 0) {
+                    // The slot still holds the row from one lap ago: full
+                    return false;
+                } else {
+                    position = tail.get();
+                }
+            }
+        }
+
+        String poll() {
+            long position = head.get();
+            while (true) {
+                int slot = (int) position & mask;
+                long gap = sequences.get(slot) - (position + 1);
+                if (gap == 0) {
+                    if (head.compareAndSet(position, position + 1)) {
+                        String row = slots.get(slot);
+                        slots.lazySet(slot, null);
+                        // Hands the slot to the producer of the next lap
+                        sequences.set(slot, position + mask + 1);
+                        return row;
+                    }
+                    position = head.get();
+                } else if (gap < 0) {
+                    // Not yet published: empty
+                    return null;
+                } else {
+                    position = head.get();
+                }
+            }
+        }
+
+        int size() {
+            return (int) Math.max(0, tail.get() - head.get());
+        }
+    }
+}
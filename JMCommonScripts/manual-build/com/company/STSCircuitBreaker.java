@@ -0,0 +1,177 @@
+package com.company;
+
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+
+import java.util.Properties;
+
+/**
+ * Circuit breaker for one STS host.
+ *
+ * Outcomes of the last {@code sts.breaker.window} calls are kept in a ring.
+ * Once at least {@code sts.breaker.min.calls} have been seen, the breaker opens
+ * when the share of failed calls (I/O errors, timeouts, HTTP 5xx) or of slow
+ * calls reaches its threshold. While open, calls fail immediately without
+ * touching the network. After {@code sts.breaker.open.ms} a few probe calls are
+ * let through (half-open): if they all succeed the breaker closes, if any
+ * fails it opens again.
+ *
+ * <pre>
+ *     sts.breaker.enabled=true
+ *     sts.breaker.window=50
+ *     sts.breaker.min.calls=20
+ *     sts.breaker.failure.rate=50      (percent)
+ *     sts.breaker.slow.call.ms=3000
+ *     sts.breaker.slow.rate=80         (percent)
+ *     sts.breaker.open.ms=5000
+ *     sts.breaker.half.open.probes=3
+ * </pre>
+ */
+final class STSCircuitBreaker {
+
+    private static final Logger log = LoggingManager.getLoggerForClass();
+
+    static final String ENABLED = "sts.breaker.enabled";
+    static final String WINDOW = "sts.breaker.window";
+    static final String MIN_CALLS = "sts.breaker.min.calls";
+    static final String FAILURE_RATE = "sts.breaker.failure.rate";
+    static final String SLOW_CALL_MS = "sts.breaker.slow.call.ms";
+    static final String SLOW_RATE = "sts.breaker.slow.rate";
+    static final String OPEN_MS = "sts.breaker.open.ms";
+    static final String HALF_OPEN_PROBES = "sts.breaker.half.open.probes";
+
+    enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final String host;
+    private final boolean enabled;
+    private final int minCalls;
+    private final int failureRate;
+    private final long slowCallMillis;
+    private final int slowRate;
+    private final long openMillis;
+    private final int halfOpenProbes;
+
+    // Sliding window of outcomes, guarded by this
+    private final boolean[] failed;
+    private final boolean[] slow;
+    private int next;
+    private int calls;
+    private int failures;
+    private int slowCalls;
+
+    private volatile State state = State.CLOSED;
+    private long openedAt;
+    private int probesIssued;
+    private int probesSucceeded;
+
+    STSCircuitBreaker(Properties props, String host) {
+        this.host = host;
+        this.enabled = Boolean.parseBoolean(props.getProperty(ENABLED, "true"));
+        int window = Math.max(1, STSTransport.intProperty(props, WINDOW, 50));
+        this.minCalls = Math.min(window, Math.max(1, STSTransport.intProperty(props, MIN_CALLS, 20)));
+        this.failureRate = STSTransport.intProperty(props, FAILURE_RATE, 50);
+        this.slowCallMillis = STSTransport.longProperty(props, SLOW_CALL_MS, 3000L);
+        this.slowRate = STSTransport.intProperty(props, SLOW_RATE, 80);
+        this.openMillis = STSTransport.longProperty(props, OPEN_MS, 5000L);
+        this.halfOpenProbes = Math.max(1, STSTransport.intProperty(props, HALF_OPEN_PROBES, 3));
+        this.failed = new boolean[window];
+        this.slow = new boolean[window];
+    }
+
+    /**
+     * Whether a call may go to the host now. A closed breaker costs one volatile read.
+     */
+    boolean tryAcquire() {
+        if (!enabled || state == State.CLOSED) {
+            return true;
+        }
+        synchronized (this) {
+            if (state == State.OPEN) {
+                if (System.currentTimeMillis() - openedAt < openMillis) {
+                    return false;
+                }
+                state = State.HALF_OPEN;
+                probesIssued = 0;
+                probesSucceeded = 0;
+                log.info("STS circuit for " + host + " half-open: probing with " + halfOpenProbes + " calls");
+            }
+            if (state == State.HALF_OPEN) {
+                if (probesIssued >= halfOpenProbes) {
+                    return false;
+                }
+                probesIssued++;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Record the outcome of a call that {@link #tryAcquire} let through. Every
+     * such call must be recorded, including one that threw: an unrecorded
+     * HALF_OPEN probe keeps the breaker half-open.
+     */
+    void record(boolean failure, long millis) {
+        if (!enabled) {
+            return;
+        }
+        boolean slowCall = millis >= slowCallMillis;
+        synchronized (this) {
+            switch (state) {
+                case HALF_OPEN:
+                    if (failure || slowCall) {
+                        open("probe " + (failure ? "failed" : "took " + millis + " ms"));
+                    } else if (++probesSucceeded >= halfOpenProbes) {
+                        reset();
+                        state = State.CLOSED;
+                        log.info("STS circuit for " + host + " closed");
+                    }
+                    return;
+                case OPEN:
+                    // Finished after the breaker opened - nothing to decide
+                    return;
+                default:
+                    if (calls == failed.length) {
+                        failures -= failed[next] ? 1 : 0;
+                        slowCalls -= slow[next] ? 1 : 0;
+                    } else {
+                        calls++;
+                    }
+                    failed[next] = failure;
+                    slow[next] = slowCall;
+                    failures += failure ? 1 : 0;
+                    slowCalls += slowCall ? 1 : 0;
+                    next = (next + 1) % failed.length;
+
+                    if (calls >= minCalls) {
+                        if (failures * 100 >= failureRate * calls) {
+                            open(failures + " of the last " + calls + " calls failed");
+                        } else if (slowCalls * 100 >= slowRate * calls) {
+                            open(slowCalls + " of the last " + calls + " calls took over " + slowCallMillis + " ms");
+                        }
+                    }
+            }
+        }
+    }
+
+    State getState() {
+        return state;
+    }
+
+    String getHost() {
+        return host;
+    }
+
+    private void open(String reason) {
+        reset();
+        openedAt = System.currentTimeMillis();
+        state = State.OPEN;
+        log.warn("STS circuit for " + host + " opened for " + openMillis + " ms: " + reason);
+    }
+
+    private void reset() {
+        next = 0;
+        calls = 0;
+        failures = 0;
+        slowCalls = 0;
+    }
+}
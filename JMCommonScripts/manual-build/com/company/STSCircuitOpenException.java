@@ -0,0 +1,15 @@
+package com.company;
+
+import java.io.IOException;
+
+/**
+ * Thrown instead of sending a request while the host's circuit breaker is open
+ */
+final class STSCircuitOpenException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    STSCircuitOpenException(String host) {
+        super("STS circuit open for " + host + " - request not sent");
+    }
+}
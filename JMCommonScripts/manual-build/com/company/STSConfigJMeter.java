@@ -1,24 +1,43 @@
 package com.company;
 
+import org.apache.jmeter.engine.event.LoopIterationEvent;
+import org.apache.jmeter.engine.event.LoopIterationListener;
 import org.apache.jmeter.samplers.AbstractSampler;
 import org.apache.jmeter.samplers.Entry;
 import org.apache.jmeter.samplers.SampleResult;
+import org.apache.jmeter.testelement.TestStateListener;
 import org.apache.jmeter.testelement.property.StringProperty;
+import org.apache.jmeter.threads.JMeterContext;
 import org.apache.jmeter.threads.JMeterContextService;
 import org.apache.jmeter.threads.JMeterVariables;
 import org.apache.jorphan.logging.LoggingManager;
 import org.apache.log.Logger;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
 /**
  * JMeter-compatible STS Sampler
  * This integrates with JMeter's test plan and GUI system
  * Executes at the position where it's placed in the test plan tree!
  */
-public class STSConfigJMeter extends AbstractSampler {
+public class STSConfigJMeter extends AbstractSampler implements TestStateListener, LoopIterationListener {
     
     private static final long serialVersionUID = 1L;
     private static final Logger log = LoggingManager.getLoggerForClass();
     private static volatile boolean globalSetupDone = false;
+    private static final Pattern VARIABLE_REFERENCE = Pattern.compile("\\$\\{([^}]+)\\}");
+    
+    private transient volatile STSOperationPlan plan;
+    
+    /** Threads that run this sampler's parallel rows; one pool per sampler, never shared */
+    
+    /** JMeter property: set to true to issue independent table rows together */
+    public static final String STS_PARALLEL_PROPERTY = "sts.config.parallel";
     
     // Property names for JMeter persistence
     public static final String STS_ACTION = "STSConfig.action";
@@ -96,7 +115,7 @@ public class STSConfigJMeter extends AbstractSampler {
         StringBuilder function = new StringBuilder("${__STS(");
         function.append(action).append(",").append(filename);
         
-        if ("KEEP".equals(action) || "DEL".equals(action)) {
+        if ("KEEP".equals(action) || "DEL".equals(action) || "LEASE".equals(action)) {
             // Read operations use variables
             String variables = getVariables().trim();
             if (!variables.isEmpty()) {
@@ -131,7 +150,7 @@ public class STSConfigJMeter extends AbstractSampler {
             return new ValidationResult(false, "Filename is required");
         }
         
-        if ("KEEP".equals(action) || "DEL".equals(action)) {
+        if ("KEEP".equals(action) || "DEL".equals(action) || "LEASE".equals(action)) {
             String variables = getVariables().trim();
             if (variables.isEmpty()) {
                 return new ValidationResult(false, "At least one variable name is required for " + action + " operations");
@@ -156,9 +175,10 @@ public class STSConfigJMeter extends AbstractSampler {
         SampleResult result = new SampleResult();
         result.setSampleLabel(getName().isEmpty() ? "STS Configuration" : getName());
         result.sampleStart(); // Start timing
+        List<SampleResult> operationResults = new ArrayList<>();
         
         try {
-            executeSTSOperations();
+            executeSTSOperations(operationResults);
             
             // Mark as successful
             result.setSuccessful(true);
@@ -176,13 +196,70 @@ public class STSConfigJMeter extends AbstractSampler {
         }
         
         result.sampleEnd(); // End timing
+        
+        // One sub-result per operation (added after sampleEnd, which must only run once)
+        for (SampleResult operationResult : operationResults) {
+            result.addSubResult(operationResult, false);
+        }
         return result;
     }
     
+    /**
+     * TestStateListener implementation - flush client-side STS state and release
+     * the shared connection pool at test end
+     */
+    @Override
+    public void testStarted() {
+        testStarted("");
+    }
+    
+    @Override
+    public void testStarted(String host) {
+        // Transport is created lazily on the first STS call. Global setup derives
+        // GIT_REPO_NAME, which the plan's filenames depend on, so it runs first.
+        String operations = getOperations().trim();
+        if (!operations.isEmpty()) {
+            ensureGlobalSetup();
+            plan = STSOperationPlan.compile(operations, JMeterContextService.getContext().getProperties(), log);
+        }
+    }
+    
+    @Override
+    public void testEnded() {
+        testEnded("");
+    }
+    
+    @Override
+    public void testEnded(String host) {
+        plan = null;
+        STS.testEnded(org.apache.jmeter.util.JMeterUtils.getJMeterProperties());
+    }
+    
+    /**
+     * LoopIterationListener implementation - the previous iteration is over, so
+     * rows this thread checked out with LEASE go back to STS (one ADDLAST each, off this thread)
+     */
+    @Override
+    public void iterationStart(LoopIterationEvent event) {
+        // Also fires for nested controllers; returnLeased only acts once the thread group's iteration has moved on
+        JMeterContext ctx = JMeterContextService.getContext();
+        STSIterationLease.returnLeased(ctx.getVariables(), ctx.getProperties());
+    }
+    
+    /**
+     * Threads run clones of this sampler; hand them the plan compiled on testStarted
+     */
+    @Override
+    public Object clone() {
+        STSConfigJMeter clone = (STSConfigJMeter) super.clone();
+        clone.plan = plan;
+        return clone;
+    }
+    
     /**
      * Execute all STS operations from the table and set JMeter variables
      */
-    private void executeSTSOperations() {
+    private void executeSTSOperations(List<SampleResult> operationResults) {
         try {
             // Ensure global setup has been executed
             ensureGlobalSetup();
@@ -194,61 +271,76 @@ public class STSConfigJMeter extends AbstractSampler {
             String operations = getOperations().trim();
             if (operations.isEmpty()) {
                 // Fallback to legacy single operation format
-                executeLegacySTS();
+                executeLegacySTS(operationResults);
                 return;
             }
             
-            // Parse and execute multiple operations
-            String[] operationList = operations.split("\\|");
+            java.util.Properties props = JMeterContextService.getContext().getProperties();
+            STSOperationPlan plan = plan(operations, props);
+            boolean parallel = Boolean.parseBoolean(props.getProperty(STS_PARALLEL_PROPERTY, "false"));
+            String host = props.getProperty("V_STS_HOST");
             int successCount = 0;
-            int totalCount = 0;
-            StringBuilder lastCommand = new StringBuilder();
+            int totalCount = plan.size();
+            String lastCommand = "";
             
-            for (String operation : operationList) {
-                operation = operation.trim();
-                if (operation.isEmpty()) continue;
+            // Run the table in waves: rows in a wave do not depend on each other and are
+            // issued together; the next wave starts once every result has been applied
+            int waveStart = 0;
+            while (waveStart < plan.size()) {
+                int waveEnd = parallel ? plan.waveEnd(waveStart) : waveStart + 1;
                 
-                String[] parts;
-                // Check if this is new semicolon format or legacy comma format
-                if (operation.contains(";")) {
-                    // New format: use semicolon as separator (avoids conflict with commas in Variables/Values)
-                    parts = operation.split(";", 4);
+                if (waveEnd - waveStart == 1) {
+                    // Nothing to overlap - run on this thread
+                    STSOperationPlan.Step step = plan.step(waveStart);
+                    String[] args = step.args(vars, log);
+                    STSResult stsResult = execute(step, props, host, args);
+                    if (STS.apply(log, vars, step.action, stsResult)) {
+                        successCount++;
+                    }
+                    operationResults.add(operationResult(step.actionName, step.filename, stsResult));
+                    lastCommand = step.command(args);
                 } else {
-                    // Legacy format: use comma as separator (for backward compatibility)
-                    parts = operation.split(",", 4);
-                }
-                
-                if (parts.length < 3) continue;
-                
-                String filename = parts[0].trim();
-                String action = parts[1].trim();
-                String variablesValues = parts[2].trim(); // Can contain commas in new format
-                // parts[3] would be comment - not used for execution
-                
-                if (filename.isEmpty() || variablesValues.isEmpty()) continue;
-                
-                // Resolve JMeter variables in the values/variables string before sending to STS
-                String resolvedVariablesValues = resolveJMeterVariables(variablesValues, vars);
-                
-                // Build the STS command for this operation
-                StringBuilder command = new StringBuilder();
-                command.append(action).append(",").append(filename).append(",").append(resolvedVariablesValues);
-                lastCommand = new StringBuilder(command);
-                
-                // Execute this STS operation
-                boolean success = STS.exec(
-                    log, // Logger
-                    vars,
-                    JMeterContextService.getContext().getProperties(),
-                    command.toString()
-                );
-                
-                totalCount++;
-                if (success) {
-                    successCount++;
+                    // The other rows go to the shared STS I/O threads; leases stay with this thread
+                    List<STSAsync.Offloaded> offloaded = new ArrayList<>(waveEnd - waveStart - 1);
+                    for (int i = waveStart + 1; i < waveEnd; i++) {
+                        STSOperationPlan.Step step = plan.step(i);
+                        // Resolve JMeter variables on the sampler thread before handing off
+                        String[] args = step.args(vars, log);
+                        offloaded.add(STSAsync.offload(props, () -> execute(step, props, host, args)));
+                        lastCommand = step.command(args);
+                    }
+                    // The first row runs here while the others are in flight
+                    STSOperationPlan.Step first = plan.step(waveStart);
+                    String[] firstArgs = first.args(vars, log);
+                    CompletableFuture<STSResult> firstResult;
+                    try {
+                        firstResult = CompletableFuture.completedFuture(execute(first, props, host, firstArgs));
+                    } catch (RuntimeException e) {
+                        firstResult = new CompletableFuture<>();
+                        firstResult.completeExceptionally(e);
+                    }
+                    // Rows no I/O thread has taken yet run here too, so a busy pool only slows the wave
+                    for (STSAsync.Offloaded row : offloaded) {
+                        row.run();
+                    }
+                    List<CompletableFuture<STSResult>> results = new ArrayList<>(waveEnd - waveStart);
+                    results.add(firstResult);
+                    results.addAll(offloaded);
+                    // Variables are written here, on the sampler thread, in table order
+                    for (int i = waveStart; i < waveEnd; i++) {
+                        STSOperationPlan.Step step = plan.step(i);
+                        try {
+                            STSResult stsResult = results.get(i - waveStart).join();
+                            if (STS.apply(log, vars, step.action, stsResult)) {
+                                successCount++;
+                            }
+                            operationResults.add(operationResult(step.actionName, step.filename, stsResult));
+                        } catch (CompletionException ce) {
+                            log.error("STS operation failed: " + plan.step(i).template.text, ce.getCause());
+                        }
+                    }
                 }
-                
-                // Log each operation
+                waveStart = waveEnd;
             }
             
             // Set overall result in JMeter variables
@@ -258,7 +350,7 @@ public class STSConfigJMeter extends AbstractSampler {
             vars.put("STS_OPERATIONS_SUCCESS", String.valueOf(successCount));
             vars.put("STS_OPERATIONS_FAILED", String.valueOf(totalCount - successCount));
             vars.put("STS_STATUS", overallSuccess ? "ALL_SUCCESS" : "SOME_FAILED");
-            vars.put("STS_LAST_COMMAND", lastCommand.toString());
+            vars.put("STS_LAST_COMMAND", lastCommand);
             
             // Log overall success
                 
@@ -300,7 +392,7 @@ public class STSConfigJMeter extends AbstractSampler {
     /**
      * Execute legacy single STS operation (backward compatibility)
      */
-    private void executeLegacySTS() {
+    private void executeLegacySTS(List<SampleResult> operationResults) {
         try {
             // Ensure global setup has been executed
             ensureGlobalSetup();
@@ -319,7 +411,7 @@ public class STSConfigJMeter extends AbstractSampler {
             StringBuilder command = new StringBuilder();
             command.append(action).append(",").append(filename);
             
-            if ("KEEP".equals(action) || "DEL".equals(action)) {
+            if ("KEEP".equals(action) || "DEL".equals(action) || "LEASE".equals(action)) {
                 String variables = getVariables().trim();
                 if (!variables.isEmpty()) {
                     String[] varArray = variables.split(",");
@@ -340,12 +432,16 @@ public class STSConfigJMeter extends AbstractSampler {
             }
             
             // Execute STS function
-            boolean success = STS.exec(
-                log, // Logger
-                vars,
-                JMeterContextService.getContext().getProperties(),
-                command.toString()
-            );
+            java.util.Properties props = JMeterContextService.getContext().getProperties();
+            String[] params = command.toString().split(",");
+            boolean success = false;
+            if (params.length < 3) {
+                log.error("STS: not enough parameters: " + command);
+            } else {
+                STSResult stsResult = STS.execute(log, props, props.getProperty("V_STS_HOST"), params);
+                success = STS.apply(log, vars, action, stsResult);
+                operationResults.add(operationResult(action, filename, stsResult));
+            }
             
             // Set result in JMeter variables (using fixed STS_ prefix for status variables)
             vars.put("STS_SUCCESS", success ? "true" : "false");
@@ -391,7 +487,7 @@ public class STSConfigJMeter extends AbstractSampler {
             STSConfigJMeter stsConfig = findSTSConfig(context);
             if (stsConfig != null) {
                 log.info("DEBUG: STSConfigJMeter.executeNow() called from script - variables should be available now");
-                stsConfig.executeSTSOperations();
+                stsConfig.executeSTSOperations(new ArrayList<>());
             } else {
                 log.warn("STSConfigJMeter.executeNow(): No STS Configuration found in test plan");
             }
@@ -410,6 +506,56 @@ public class STSConfigJMeter extends AbstractSampler {
         return null;
     }
 
+    /**
+     * Compiled plan for the current operations table. Compiled on testStarted and
+     * shared with every thread's clone; recompiled if the table text or the
+     * repository name it was compiled with has changed.
+     */
+    private STSOperationPlan plan(String operations, java.util.Properties props) {
+        STSOperationPlan current = plan;
+        if (current == null || !current.isCompiledFrom(operations, props.getProperty("GIT_REPO_NAME"))) {
+            current = STSOperationPlan.compile(operations, props, log);
+            plan = current;
+        }
+        return current;
+    }
+    
+    /**
+     * Sub-result for one STS operation, labelled "ACTION file", so the JTL shows
+     * STS time per file: elapsed, connect time, latency (time to first byte) and bytes
+     */
+    private static SampleResult operationResult(String action, String filename, STSResult stsResult) {
+        SampleResult child = new SampleResult();
+        child.setSampleLabel(action.toUpperCase() + " " + filename);
+        child.setThreadName(Thread.currentThread().getName());
+        child.setStampAndTime(stsResult.getStartTime(), stsResult.getEndTime() - stsResult.getStartTime());
+        child.setConnectTime(stsResult.getConnectTime());
+        child.setLatency(stsResult.getLatency());
+        // getBytes() prefers headers + body size, and body size falls back to the response data
+        // (the row) - so record the whole response size there
+        child.setBytes(stsResult.getBytes());
+        child.setBodySize(stsResult.getBytes());
+        child.setSentBytes(stsResult.getSentBytes());
+        child.setSuccessful(stsResult.isOk());
+        child.setResponseCode(stsResult.getHttpStatus() > 0
+            ? String.valueOf(stsResult.getHttpStatus()) : stsResult.getStatus().name());
+        child.setResponseMessage(stsResult.getMessage() == null
+            ? stsResult.getStatus().name() : stsResult.getStatus() + ": " + stsResult.getMessage());
+        child.setResponseHeaders("connect=" + stsResult.getConnectTime() + "ms (tls=" + stsResult.getTlsTime()
+            + "ms), latency=" + stsResult.getLatency() + "ms, transfer="
+            + Math.max(0, stsResult.getEndTime() - stsResult.getStartTime() - stsResult.getLatency()) + "ms");
+        child.setDataType(SampleResult.TEXT);
+        child.setResponseData(stsResult.getRow() == null ? "" : stsResult.getRow(), "UTF-8");
+        return child;
+    }
+    
+    private static STSResult execute(STSOperationPlan.Step step, java.util.Properties props, String host, String[] args) {
+        if (step.action == null) {
+            return STSResult.invalid(step.formattedFilename, "unknown action " + step.actionName.toUpperCase());
+        }
+        return STS.execute(log, props, host, step.action, step.formattedFilename, step.filename, args);
+    }
+    
     /**
      * Resolve JMeter variables (like ${varName}) in a string to their actual values
      */
@@ -418,23 +564,10 @@ public class STSConfigJMeter extends AbstractSampler {
             return input;
         }
         
-        // Debug: Log all available variables (only at DEBUG level)
-        if (log.isDebugEnabled()) {
-            if (vars.entrySet().size() > 0) {
-                log.debug("Available JMeter variables (" + vars.entrySet().size() + " total):");
-                for (java.util.Map.Entry<String, Object> entry : vars.entrySet()) {
-                    log.debug("  " + entry.getKey() + " = " + entry.getValue());
-                }
-            } else {
-                log.debug("No JMeter variables available in context!");
-            }
-        }
-        
         String result = input;
         
         // Simple regex-based variable resolution for ${variableName} patterns
-        java.util.regex.Pattern pattern = java.util.regex.Pattern.compile("\\$\\{([^}]+)\\}");
-        java.util.regex.Matcher matcher = pattern.matcher(input);
+        Matcher matcher = VARIABLE_REFERENCE.matcher(input);
         
         while (matcher.find()) {
             String variableName = matcher.group(1);
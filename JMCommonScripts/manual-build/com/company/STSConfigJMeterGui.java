@@ -195,6 +195,7 @@ public class STSConfigJMeterGui extends AbstractConfigGui {
         helpArea.setText(
             "Configure multiple STS operations in a single element. " +
             "KEEP/DEL: Read data (Variables = column names). " +
+            "LEASE: DEL for this iteration, returned when the next iteration starts. " +
             "ADDFIRST/ADDLAST: Add data (Variables/Values = data to add). " +
             "Filenames are automatically prefixed with repository name. " +
             "Click 'Refresh CSV List' if files don't appear in dropdown."
@@ -286,7 +287,7 @@ public class STSConfigJMeterGui extends AbstractConfigGui {
         // Action column with dropdown
         TableColumn actionColumn = stsTable.getColumnModel().getColumn(1);
         actionColumn.setPreferredWidth(100);
-        JComboBox<String> actionEditor = new JComboBox<>(new String[]{"KEEP", "DEL", "ADDFIRST", "ADDLAST"});
+        JComboBox<String> actionEditor = new JComboBox<>(new String[]{"KEEP", "DEL", "LEASE", "ADDFIRST", "ADDLAST"});
         actionColumn.setCellEditor(new DefaultCellEditor(actionEditor));
         
         // Variables/Values column
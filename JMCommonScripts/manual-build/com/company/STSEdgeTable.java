@@ -0,0 +1,131 @@
+package com.company;
+
+import com.company.server.STSTable;
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Table behind the generator-local STS edge ({@link com.company.server.STSEdgeServer}).
+ *
+ * Rows are leased from the central STS in blocks and handed to local threads
+ * from memory, using the same per-file buffers as client prefetching
+ * ({@link STSPrefetchBuffer}): DEL reads take a block with READMULTI KEEP=FALSE,
+ * KEEP reads the next block with KEEP=TRUE, so the central file keeps rotating
+ * for every generator. ADDs are queued and sent upstream off the request path
+ * by {@link STSWriteBehind}. {@link #close} flushes queued ADDs and returns
+ * unused DEL leases to the head of the central files.
+ *
+ * Operations can wait on the central server, so {@link com.company.server.STSEdgeServer}
+ * runs them on worker threads rather than on its event loops.
+ */
+public final class STSEdgeTable implements STSTable {
+
+    private static final Logger log = LoggingManager.getLoggerForClass();
+
+    private final Properties props;
+    private final String upstream;
+
+    /**
+     * @param props prefetch, write-behind and transport settings
+     * @param upstream central STS host:port
+     */
+    public STSEdgeTable(Properties props, String upstream) {
+        this.props = props;
+        this.upstream = upstream;
+    }
+
+    /**
+     * FIRST reads only. Like STS, READMULTI returns all {@code count} rows or
+     * none: rows taken for a read that cannot be filled go back to the buffer.
+     */
+    @Override
+    public List<String> read(String filename, String mode, boolean keep, int count) throws IOException {
+        if (!"FIRST".equals(mode)) {
+            throw new IOException("READ_MODE=" + mode + " is not supported by the STS edge");
+        }
+        STSPrefetchBuffer buffer = STSPrefetchBuffer.forFile(props, upstream, filename, keep);
+        List<String> lines = new ArrayList<>(count);
+        try {
+            while (lines.size() < count) {
+                String row = buffer.take();
+                if (row == null) {
+                    // Central file has fewer rows than asked for: KO, as STS answers
+                    buffer.putBack(lines);
+                    return null;
+                }
+                lines.add(row);
+            }
+        } catch (IOException e) {
+            buffer.putBack(lines);
+            throw new UnavailableException("central STS " + upstream + ": " + e.getMessage(), e);
+        }
+        return lines;
+    }
+
+    /**
+     * Queued for the next upstream batch; UNIQUE needs the central file and is refused
+     */
+    @Override
+    public boolean add(String filename, String mode, String line, boolean unique) throws IOException {
+        if (unique) {
+            throw new IOException("UNIQUE is not supported by the STS edge");
+        }
+        if (STSWriteBehind.offer(props, upstream, filename, mode, line)) {
+            return true;
+        }
+        // Queue full - add synchronously
+        STSResult result = STS.add(log, props, upstream, filename, mode, new String[] { line });
+        if (!result.isOk()) {
+            throw new UnavailableException("central STS " + upstream + ": " + result.getMessage(), null);
+        }
+        return true;
+    }
+
+    @Override
+    public int initFile(String filename) throws IOException {
+        int lines = upstream(() -> STS.initFile(props, upstream, filename));
+        if (lines < 0) {
+            throw new IOException("central STS " + upstream + " could not load " + filename);
+        }
+        return lines;
+    }
+
+    /**
+     * Rows on the central server plus rows this edge has leased but not handed out
+     */
+    @Override
+    public int length(String filename) throws IOException {
+        int central = upstream(() -> STS.length(props, upstream, filename));
+        int leased = STSPrefetchBuffer.leasedRows(upstream, filename);
+        return central < 0 && leased == 0 ? -1 : Math.max(0, central) + leased;
+    }
+
+    @Override
+    public int save(String filename) throws IOException {
+        return upstream(() -> STS.save(props, upstream, filename));
+    }
+
+    /**
+     * Send queued ADDs, return unused DEL leases and close the upstream connections
+     */
+    public void close() {
+        STS.testEnded(props);
+    }
+
+    private int upstream(UpstreamCall call) throws IOException {
+        try {
+            return call.run();
+        } catch (IOException e) {
+            throw new UnavailableException("central STS " + upstream + ": " + e.getMessage(), e);
+        }
+    }
+
+    private interface UpstreamCall {
+        int run() throws IOException;
+    }
+}
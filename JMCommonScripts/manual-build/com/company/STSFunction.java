@@ -21,6 +21,8 @@ import java.util.Properties;
  *   ${__STS(KEEP,applications.csv,APP_ID,Passport_Number)}
  *   ${__STS(DEL,applications.csv,APP_ID,Passport_Number)}
  *   ${__STS(ADDFIRST,applications.csv,value1,value2,value3)}
+ *   ${__STS(LEASE,users.csv,USER_ID)}    (returned to STS when the next iteration starts)
+ *   ${__STS(CONSUME,users.csv)}          (keep the leased row instead)
  * 
  * The function returns "true" on success, "false" on failure
  * Variables are automatically populated in JMeter context
@@ -33,7 +35,7 @@ public class STSFunction extends AbstractFunction {
     private static final List<String> DESC = new LinkedList<>();
     
     static {
-        DESC.add("Action (KEEP, DEL, ADDFIRST, ADDLAST)");
+        DESC.add("Action (KEEP, DEL, LEASE, CONSUME, ADDFIRST, ADDLAST)");
         DESC.add("Filename (e.g., applications.csv)");
         DESC.add("Variable1 (or Value1 for ADD operations)");
         DESC.add("Variable2 (or Value2 for ADD operations) - Optional");
@@ -0,0 +1,308 @@
+package com.company;
+
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
+
+/**
+ * Hedged KEEP reads for one STS host.
+ *
+ * A KEEP read puts its row back in rotation, so reading twice is harmless.
+ * When hedging is on, the read runs on the calling thread and, if it has not
+ * answered within the recent {@code sts.hedge.percentile} latency of KEEP
+ * reads on that host, a second identical read is sent from a hedge thread;
+ * whichever returns a row (or "no more lines") first is used. A hedge that
+ * wins aborts the first read's request, so the caller gets the answer at once.
+ * Hedges are capped at {@code sts.hedge.max.rate} percent of KEEP reads, so a
+ * slow STS gets at most that much extra traffic, and the hedge threads per
+ * host are that share of {@code sts.pool.max.per.route}: a hedge that finds
+ * them all busy is not sent. No hedges are sent until
+ * {@code sts.hedge.min.samples} reads have been timed.
+ *
+ * <pre>
+ *     sts.hedge.enabled=false
+ *     sts.hedge.percentile=95
+ *     sts.hedge.max.rate=5          (percent of KEEP reads)
+ *     sts.hedge.min.delay.ms=2
+ *     sts.hedge.min.samples=100
+ * </pre>
+ */
+final class STSHedging {
+
+    private static final Logger log = LoggingManager.getLoggerForClass();
+
+    static final String ENABLED = "sts.hedge.enabled";
+    static final String PERCENTILE = "sts.hedge.percentile";
+    static final String MAX_RATE = "sts.hedge.max.rate";
+    static final String MIN_DELAY_MS = "sts.hedge.min.delay.ms";
+    static final String MIN_SAMPLES = "sts.hedge.min.samples";
+
+    /** Latencies kept for the percentile; the delay is recomputed every RECOMPUTE_EVERY samples */
+    private static final int WINDOW = 1024;
+    private static final int RECOMPUTE_EVERY = 64;
+
+    private static final Map<String, STSHedging> hosts = new ConcurrentHashMap<>();
+
+    /** Fires the hedge of a read that is still running after the delay; shut down by {@link #clear} */
+    private static ScheduledThreadPoolExecutor timer;
+
+    private final String host;
+    private final double percentile;
+    private final int maxRate;
+    private final long minDelayMillis;
+    private final int minSamples;
+    private final ThreadPoolExecutor hedgeExecutor;
+
+    private final AtomicLongArray latencies = new AtomicLongArray(WINDOW);
+    private final AtomicLong samples = new AtomicLong();
+    private volatile long delayMillis = -1;
+
+    private final AtomicLong reads = new AtomicLong();
+    private final AtomicLong hedges = new AtomicLong();
+    private final AtomicLong hedgeWins = new AtomicLong();
+
+    private STSHedging(Properties props, String host) {
+        this.host = host;
+        this.percentile = Math.min(99.9, Math.max(50, STSTransport.intProperty(props, PERCENTILE, 95)));
+        this.maxRate = Math.max(0, STSTransport.intProperty(props, MAX_RATE, 5));
+        this.minDelayMillis = Math.max(1, STSTransport.longProperty(props, MIN_DELAY_MS, 2L));
+        this.minSamples = Math.min(WINDOW, Math.max(1, STSTransport.intProperty(props, MIN_SAMPLES, 100)));
+
+        // At most maxRate% of the connections the host may have open are hedges
+        int connections = Math.max(1, STSTransport.intProperty(props, STSTransport.POOL_MAX_PER_ROUTE, 100));
+        int threads = Math.max(1, (int) Math.ceil(connections * maxRate / 100.0));
+        AtomicInteger count = new AtomicInteger();
+        // No queue: a hedge that has to wait for a thread is too late to help
+        this.hedgeExecutor = new ThreadPoolExecutor(0, threads, 60L, TimeUnit.SECONDS, new SynchronousQueue<>(), r -> {
+            Thread t = new Thread(r, "STS-hedge-" + host + "-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    static boolean isEnabled(Properties props) {
+        return Boolean.parseBoolean(props.getProperty(ENABLED, "false"));
+    }
+
+    static STSHedging forHost(Properties props, String host) {
+        return hosts.computeIfAbsent(host, h -> new STSHedging(props, h));
+    }
+
+    /**
+     * One read against the server; must not throw
+     */
+    interface Read {
+        /**
+         * @param sending called with the request before it is sent, so a winning hedge can abort it; may be null
+         */
+        STSResult run(Consumer<HttpUriRequest> sending);
+    }
+
+    /**
+     * Run a KEEP read on this thread, hedging it once if it is slower than the recent percentile
+     */
+    STSResult read(String filename, Read read) {
+        reads.incrementAndGet();
+        long delay = delayMillis;
+        if (delay < 0) {
+            // Still learning the latency
+            STSResult result = read.run(null);
+            record(result);
+            return result;
+        }
+        long start = System.currentTimeMillis();
+        Race race = new Race();
+        ScheduledFuture<?> hedgeTimer;
+        try {
+            hedgeTimer = timer().schedule(() -> hedge(race, read), delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // Test ending
+            hedgeTimer = null;
+        }
+        STSResult primary = read.run(race::sending);
+        if (hedgeTimer != null) {
+            hedgeTimer.cancel(false);
+        }
+        record(primary);
+
+        STSResult result = race.primaryDone(primary);
+        if (result != primary) {
+            hedgeWins.incrementAndGet();
+            if (result.getStartTime() > start) {
+                // Report the read from when it was first sent, not from when the hedge went out
+                long wait = result.getStartTime() - start;
+                result = result.timed(start, result.getEndTime(), result.getConnectTime(), result.getTlsTime(),
+                    result.getLatency() + wait, result.getBytes(), result.getSentBytes());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Send the hedge of a read still running after the delay (timer thread)
+     */
+    private void hedge(Race race, Read read) {
+        if (!allowHedge()) {
+            return;
+        }
+        CompletableFuture<STSResult> hedge = new CompletableFuture<>();
+        if (!race.hedging(hedge)) {
+            return;
+        }
+        try {
+            hedgeExecutor.execute(() -> {
+                STSResult result = read.run(null);
+                record(result);
+                if (answered(result)) {
+                    race.hedgeAnswered(result);
+                }
+                hedge.complete(result);
+            });
+            hedges.incrementAndGet();
+        } catch (RejectedExecutionException e) {
+            // Every hedge thread busy (or test ending): no hedge this time
+            hedge.complete(null);
+        }
+    }
+
+    /**
+     * The primary read and at most one hedge of it. First answer wins; errors
+     * only count once both attempts have failed.
+     */
+    private static final class Race {
+        private HttpUriRequest primaryRequest;
+        private boolean primaryFinished;
+        private boolean primaryAnswered;
+        private CompletableFuture<STSResult> hedge;
+        private STSResult winner;
+
+        synchronized void sending(HttpUriRequest request) {
+            primaryRequest = request;
+            if (winner != null) {
+                request.abort();
+            }
+        }
+
+        /**
+         * @return false if the primary has finished and no hedge is needed
+         */
+        synchronized boolean hedging(CompletableFuture<STSResult> future) {
+            if (primaryFinished) {
+                return false;
+            }
+            hedge = future;
+            return true;
+        }
+
+        synchronized void hedgeAnswered(STSResult result) {
+            if (primaryAnswered || winner != null) {
+                return;
+            }
+            winner = result;
+            if (primaryRequest != null) {
+                // Frees the calling thread; the aborted read is not retried
+                primaryRequest.abort();
+            }
+        }
+
+        /**
+         * The result to hand the caller once the primary read has returned
+         */
+        STSResult primaryDone(STSResult primary) {
+            CompletableFuture<STSResult> pending;
+            synchronized (this) {
+                primaryFinished = true;
+                if (winner != null) {
+                    return winner;
+                }
+                if (answered(primary) || hedge == null) {
+                    primaryAnswered = true;
+                    return primary;
+                }
+                pending = hedge;
+            }
+            // The primary failed while the hedge is still out: its answer decides
+            pending.join();
+            synchronized (this) {
+                return winner != null ? winner : primary;
+            }
+        }
+    }
+
+    private static boolean answered(STSResult result) {
+        return result != null && (result.isOk() || result.isEmptyFile());
+    }
+
+    private boolean allowHedge() {
+        return hedges.get() * 100 < (long) maxRate * reads.get();
+    }
+
+    private void record(STSResult result) {
+        if (!answered(result) || result.getStartTime() == 0) {
+            return;
+        }
+        long n = samples.getAndIncrement();
+        latencies.set((int) (n % WINDOW), result.getEndTime() - result.getStartTime());
+        if (n + 1 == minSamples || (n + 1 > minSamples && (n + 1) % RECOMPUTE_EVERY == 0)) {
+            int size = (int) Math.min(n + 1, WINDOW);
+            long[] sorted = new long[size];
+            for (int i = 0; i < size; i++) {
+                sorted[i] = latencies.get(i);
+            }
+            Arrays.sort(sorted);
+            int index = (int) Math.min(size - 1, Math.ceil(percentile / 100.0 * size) - 1);
+            delayMillis = Math.max(minDelayMillis, sorted[Math.max(0, index)]);
+        }
+    }
+
+    private static synchronized ScheduledThreadPoolExecutor timer() {
+        if (timer == null) {
+            timer = new ScheduledThreadPoolExecutor(1, r -> {
+                Thread t = new Thread(r, "STS-hedge-timer");
+                t.setDaemon(true);
+                return t;
+            });
+            // Most reads answer in time: drop their cancelled hedges at once
+            timer.setRemoveOnCancelPolicy(true);
+        }
+        return timer;
+    }
+
+    /**
+     * Log what hedging did per host, stop the hedge threads and forget the
+     * latency history (test end)
+     */
+    static void clear() {
+        synchronized (STSHedging.class) {
+            if (timer != null) {
+                timer.shutdown();
+                timer = null;
+            }
+        }
+        for (STSHedging hedging : hosts.values()) {
+            hedging.hedgeExecutor.shutdown();
+            if (hedging.reads.get() > 0) {
+                log.info("STS hedging for " + hedging.host + ": " + hedging.reads.get() + " KEEP reads, "
+                    + hedging.hedges.get() + " hedged, " + hedging.hedgeWins.get() + " won by the hedge, delay "
+                    + hedging.delayMillis + " ms");
+            }
+        }
+        hosts.clear();
+    }
+}
@@ -5,6 +5,7 @@ import org.apache.log.Logger;
 import org.apache.jorphan.logging.LoggingManager;
 
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Simple helper class to make STS calls more concise in JSR223 samplers
@@ -33,6 +34,15 @@ public final class STSHelper {
         return STS.exec(log, vars, props, command);
     }
     
+    /**
+     * Start an STS operation without waiting for it. Apply the result on the
+     * sampler thread: {@code stsAsync("KEEP,users.csv,USERNAME").join().applyTo(log, vars)}
+     */
+    public static CompletableFuture<STSResult> stsAsync(String command) {
+        Properties props = org.apache.jmeter.threads.JMeterContextService.getContext().getProperties();
+        return STSAsync.exec(props, command);
+    }
+    
     /**
      * Alternative method names for different preferences
      */
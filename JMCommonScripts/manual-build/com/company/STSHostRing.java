@@ -0,0 +1,156 @@
+package com.company;
+
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Consistent-hash ring that spreads STS files over several servers.
+ *
+ * V_STS_HOST may list more than one server, separated by commas, semicolons or
+ * spaces ("sts1:9191,sts2:9191"). Each formatted filename is always routed to
+ * the same server, so a file's rows live on one STS instance and KEEP/DEL
+ * order is preserved. Every host sits on the ring at many points (virtual
+ * nodes), which keeps files evenly spread and means that adding a host moves
+ * only about 1/n of the files to it; every other file stays where it was.
+ *
+ * <pre>
+ *     sts.hosts.vnodes=160   (ring points per host)
+ * </pre>
+ */
+final class STSHostRing {
+
+    private static final Logger log = LoggingManager.getLoggerForClass();
+
+    static final String VNODES = "sts.hosts.vnodes";
+
+    private static volatile STSHostRing current;
+
+    private final String hostList;
+    private final String[] hosts;
+    /** Sorted ring positions and the host owning each one */
+    private final long[] points;
+    private final String[] owners;
+    private final Map<String, String> routes = new ConcurrentHashMap<>();
+
+    private STSHostRing(String hostList, String[] hosts, int vnodes) {
+        this.hostList = hostList;
+        this.hosts = hosts;
+
+        // Four 32-bit points per MD5 digest of "host-i", as ketama does
+        long[][] entries = new long[hosts.length * vnodes][];
+        int n = 0;
+        for (int h = 0; h < hosts.length; h++) {
+            for (int i = 0; n < (h + 1) * vnodes; i++) {
+                byte[] digest = md5(hosts[h] + "-" + i);
+                for (int k = 0; k < 4 && n < (h + 1) * vnodes; k++) {
+                    entries[n++] = new long[] { point(digest, k * 4), h };
+                }
+            }
+        }
+        Arrays.sort(entries, (a, b) -> Long.compare(a[0], b[0]));
+        points = new long[entries.length];
+        owners = new String[entries.length];
+        for (int i = 0; i < entries.length; i++) {
+            points[i] = entries[i][0];
+            owners[i] = hosts[(int) entries[i][1]];
+        }
+    }
+
+    /**
+     * Host that serves {@code filename}. A single host is returned as is.
+     *
+     * @param hostList V_STS_HOST (one host or a list)
+     * @param filename formatted (repository-prefixed) filename
+     */
+    static String route(Properties props, String hostList, String filename) {
+        if (hostList == null || !isList(hostList)) {
+            return hostList;
+        }
+        STSHostRing ring = current;
+        if (ring == null || !ring.hostList.equals(hostList)) {
+            ring = rebuild(props, hostList);
+        }
+        return ring.routes.computeIfAbsent(filename, ring::locate);
+    }
+
+    private static synchronized STSHostRing rebuild(Properties props, String hostList) {
+        STSHostRing previous = current;
+        if (previous != null && previous.hostList.equals(hostList)) {
+            return previous;
+        }
+        int vnodes = Math.max(1, STSTransport.intProperty(props, VNODES, 160));
+        STSHostRing ring = new STSHostRing(hostList, split(hostList), vnodes);
+        current = ring;
+
+        if (previous == null) {
+            log.info("STS sharding files across " + ring.hosts.length + " hosts: " + String.join(", ", ring.hosts));
+        } else {
+            // Files already routed keep their host unless the new ring moved them
+            int moved = 0;
+            for (Map.Entry<String, String> route : previous.routes.entrySet()) {
+                String host = ring.routes.computeIfAbsent(route.getKey(), ring::locate);
+                if (!host.equals(route.getValue())) {
+                    moved++;
+                    log.debug("STS file " + route.getKey() + " moved from " + route.getValue() + " to " + host);
+                }
+            }
+            log.info("STS hosts changed to " + String.join(", ", ring.hosts) + ": " + moved + " of "
+                + previous.routes.size() + " files moved");
+        }
+        return ring;
+    }
+
+    private String locate(String filename) {
+        int index = Arrays.binarySearch(points, point(md5(filename), 0));
+        if (index < 0) {
+            index = -index - 1;
+        }
+        return owners[index == points.length ? 0 : index];
+    }
+
+    private static boolean isList(String hostList) {
+        String trimmed = hostList.trim();
+        for (int i = 0; i < trimmed.length(); i++) {
+            char c = trimmed.charAt(i);
+            if (c == ',' || c == ';' || Character.isWhitespace(c)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String[] split(String hostList) {
+        Set<String> hosts = new LinkedHashSet<>();
+        for (String host : hostList.split("[,;\\s]+")) {
+            if (!host.isEmpty()) {
+                hosts.add(host);
+            }
+        }
+        return hosts.toArray(new String[0]);
+    }
+
+    private static long point(byte[] digest, int offset) {
+        return ((long) (digest[offset + 3] & 0xFF) << 24)
+            | ((long) (digest[offset + 2] & 0xFF) << 16)
+            | ((long) (digest[offset + 1] & 0xFF) << 8)
+            | (digest[offset] & 0xFF);
+    }
+
+    private static byte[] md5(String key) {
+        try {
+            return MessageDigest.getInstance("MD5").digest(key.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 not available", e);
+        }
+    }
+}
@@ -0,0 +1,323 @@
+package com.company;
+
+import org.apache.jmeter.control.Controller;
+import org.apache.jmeter.threads.JMeterContextService;
+import org.apache.jmeter.threads.JMeterThread;
+import org.apache.jmeter.threads.JMeterVariables;
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Rows checked out with LEASE for one iteration.
+ *
+ * A journey that needs a row to itself for one iteration used to DEL it at
+ * the start and ADDLAST it at the end: two synchronous round trips. LEASE
+ * reads the row like DEL and remembers it for the JMeter thread; when the
+ * thread's iteration ends the row goes to a return queue shared by all
+ * threads. Rows of a file that arrive within {@code sts.lease.return.linger.ms}
+ * of each other are sent together as one batch with ADDLAST, off the sampler
+ * threads (STS takes one row per ADD, so a batch is one request per row).
+ * {@code CONSUME} keeps the thread's leased rows of a file instead (e.g. the
+ * user was deleted by the journey).
+ *
+ * <pre>
+ *     ${__STS(LEASE,users.csv,USER_ID,PASSWORD)}
+ *     ${__STS(CONSUME,users.csv)}
+ *
+ *     sts.lease.return.linger.ms=50
+ * </pre>
+ *
+ * The iteration end is seen by a listener on the thread group's loop,
+ * registered on the thread's first LEASE; it is notified before pacing or
+ * other listeners wait. If JMeter's thread does not expose its loop, rows are
+ * returned when an STS Configuration sampler sees the next iteration start,
+ * or else on the thread's first LEASE in the next iteration. Rows still
+ * leased when the test ends (a thread's last iteration) are returned then.
+ */
+public final class STSIterationLease {
+
+    private static final Logger log = LoggingManager.getLoggerForClass();
+
+    public static final String RETURN_LINGER_MS = "sts.lease.return.linger.ms";
+
+    /** The loop of a JMeter thread's thread group; null if this JMeter version has no such field */
+    private static final Field THREAD_GROUP_LOOP = threadGroupLoopField();
+
+    private static final ThreadLocal<Borrowed> current = new ThreadLocal<>();
+    /** Every thread's leases, so the test end can return them */
+    private static final Set<Borrowed> all = ConcurrentHashMap.newKeySet();
+
+    private static final LongAdder leased = new LongAdder();
+    private static final LongAdder returned = new LongAdder();
+    private static final LongAdder consumed = new LongAdder();
+    private static final LongAdder batches = new LongAdder();
+
+    /** Rows on their way back, per host and file, shared by every thread */
+    private static final Map<String, Returns> returns = new ConcurrentHashMap<>();
+    /** Sends the return batches; shut down by {@link #releaseAll} */
+    private static ScheduledExecutorService returner;
+
+    private STSIterationLease() {}
+
+    /**
+     * Record a row read with LEASE by the calling (sampler) thread
+     */
+    static void borrow(JMeterVariables vars, String filename, String row) {
+        Borrowed borrowed = current.get();
+        if (borrowed == null || !all.contains(borrowed)) {
+            borrowed = new Borrowed();
+            current.set(borrowed);
+            all.add(borrowed);
+            listenForIterations(borrowed, JMeterContextService.getContext().getProperties());
+        }
+        if (borrowed.iteration != vars.getIteration()) {
+            // No iteration listener returned last iteration's rows - do it now
+            giveBack(JMeterContextService.getContext().getProperties(), borrowed.drain());
+            borrowed.iteration = vars.getIteration();
+        }
+        borrowed.add(filename, row);
+        leased.increment();
+    }
+
+    /**
+     * Keep the calling thread's leased rows of a file instead of returning them
+     *
+     * @return the number of rows kept
+     */
+    static int consume(JMeterVariables vars, String filename) {
+        Borrowed borrowed = current.get();
+        if (borrowed == null || borrowed.iteration != vars.getIteration()) {
+            return 0;
+        }
+        int kept = borrowed.remove(filename);
+        consumed.add(kept);
+        return kept;
+    }
+
+    /**
+     * Return the rows the calling thread leased in its previous iteration
+     * (iteration start). Loop iteration events also fire when a nested
+     * controller (Transaction, Loop, ...) starts; the thread is then still in
+     * the iteration that leased the rows, and they stay leased.
+     */
+    public static void returnLeased(JMeterVariables vars, Properties props) {
+        Borrowed borrowed = current.get();
+        if (borrowed != null && borrowed.iteration != vars.getIteration()) {
+            giveBack(props, borrowed.drain());
+        }
+    }
+
+    /**
+     * Return every thread's leased rows and forget them (test end)
+     */
+    public static void releaseAll(Properties props) {
+        for (Borrowed borrowed : all) {
+            giveBack(props, borrowed.drain());
+        }
+        ScheduledExecutorService executor;
+        synchronized (STSIterationLease.class) {
+            executor = returner;
+            returner = null;
+        }
+        if (executor != null) {
+            // Batches already lingering are still sent
+            executor.shutdown();
+            try {
+                executor.awaitTermination(30, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        for (Returns pending : returns.values()) {
+            pending.flush();
+        }
+        returns.clear();
+
+        if (leased.sum() > 0) {
+            log.info("STS iteration leases: leased=" + leased.sum() + ", returned=" + returned.sum()
+                + " in " + batches.sum() + " batches, consumed=" + consumed.sum());
+        }
+        all.clear();
+        leased.reset();
+        returned.reset();
+        consumed.reset();
+        batches.reset();
+    }
+
+    /**
+     * Return the thread's rows whenever its thread group starts an iteration,
+     * with or without an STS Configuration sampler in the tree
+     */
+    private static void listenForIterations(Borrowed borrowed, Properties props) {
+        JMeterThread thread = JMeterContextService.getContext().getThread();
+        if (THREAD_GROUP_LOOP == null || thread == null) {
+            return;
+        }
+        try {
+            Controller loop = (Controller) THREAD_GROUP_LOOP.get(thread);
+            // Listeners added later are notified first, so this runs before pacing waits
+            loop.addIterationListener(event -> giveBack(props, borrowed.drain()));
+        } catch (IllegalAccessException | RuntimeException e) {
+            log.debug("STS iteration leases: cannot listen to the thread group loop: " + e);
+        }
+    }
+
+    private static Field threadGroupLoopField() {
+        try {
+            Field field = JMeterThread.class.getDeclaredField("threadGroupLoopController");
+            field.setAccessible(true);
+            return field;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            log.info("STS iteration leases: thread group loop not reachable, rows are returned on the next "
+                + "iteration start or LEASE (" + e + ")");
+            return null;
+        }
+    }
+
+    /**
+     * ADDLAST rows back to their files through the shared return queue, or at
+     * once when the in-process engine holds them
+     */
+    private static void giveBack(Properties props, List<String[]> rows) {
+        if (rows.isEmpty()) {
+            return;
+        }
+        String hostList = props.getProperty("V_STS_HOST");
+        boolean remote = !STSLocalEngine.isActive(props);
+        for (String[] lease : rows) {
+            String filename = lease[0];
+            String row = lease[1];
+            String host = STSHostRing.route(props, hostList, filename);
+            if (remote && host != null) {
+                returns.computeIfAbsent(host + "|" + filename, k -> new Returns(props, host, filename)).offer(row);
+                continue;
+            }
+            STSResult result = STS.execute(log, props, hostList, STS.Action.ADDLAST, filename, filename,
+                new String[] { row });
+            if (result.isOk()) {
+                returned.increment();
+            } else {
+                log.error("STS: could not return leased row to " + filename + ": " + result.getMessage());
+            }
+        }
+    }
+
+    private static synchronized ScheduledExecutorService returner() {
+        if (returner == null) {
+            AtomicInteger count = new AtomicInteger();
+            returner = Executors.newScheduledThreadPool(2, r -> {
+                Thread t = new Thread(r, "STS-lease-return-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        return returner;
+    }
+
+    /**
+     * Rows of one file being returned. The first row after a batch schedules
+     * the next one; rows any thread adds until it runs go with it.
+     */
+    private static final class Returns {
+        private final Properties props;
+        private final String host;
+        private final String filename;
+        private final long lingerMillis;
+
+        private final ConcurrentLinkedQueue<String> rows = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        // Keeps batches of a file in order
+        private final ReentrantLock sending = new ReentrantLock();
+
+        Returns(Properties props, String host, String filename) {
+            this.props = props;
+            this.host = host;
+            this.filename = filename;
+            this.lingerMillis = Math.max(0L, STSTransport.longProperty(props, RETURN_LINGER_MS, 50L));
+        }
+
+        void offer(String row) {
+            rows.add(row);
+            if (scheduled.compareAndSet(false, true)) {
+                try {
+                    returner().schedule(this::flush, lingerMillis, TimeUnit.MILLISECONDS);
+                } catch (RejectedExecutionException e) {
+                    // Test ending: send it here
+                    flush();
+                }
+            }
+        }
+
+        void flush() {
+            // Rows offered from here on schedule the next batch
+            scheduled.set(false);
+            sending.lock();
+            try {
+                List<String> batch = new ArrayList<>();
+                for (String row; (row = rows.poll()) != null; ) {
+                    batch.add(row);
+                }
+                if (batch.isEmpty()) {
+                    return;
+                }
+                batches.increment();
+                for (String row : batch) {
+                    STSResult result = STS.add(log, props, host, filename, "LAST", new String[] { row });
+                    if (result.isOk()) {
+                        returned.increment();
+                    } else {
+                        log.error("STS: could not return leased row to " + filename + ": " + result.getMessage());
+                    }
+                }
+            } finally {
+                sending.unlock();
+            }
+        }
+    }
+
+    /**
+     * One thread's leased rows (filename and row), touched by that thread
+     * until the test ends
+     */
+    private static final class Borrowed {
+        private final List<String[]> rows = new ArrayList<>();
+        int iteration = -1;
+
+        synchronized void add(String filename, String row) {
+            rows.add(new String[] { filename, row });
+        }
+
+        synchronized int remove(String filename) {
+            int before = rows.size();
+            rows.removeIf(lease -> lease[0].equals(filename));
+            return before - rows.size();
+        }
+
+        synchronized List<String[]> drain() {
+            if (rows.isEmpty()) {
+                return Collections.emptyList();
+            }
+            List<String[]> drained = new ArrayList<>(rows);
+            rows.clear();
+            return drained;
+        }
+    }
+}
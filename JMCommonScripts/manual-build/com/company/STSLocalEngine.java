@@ -0,0 +1,395 @@
+package com.company;
+
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * In-process STS engine for single-generator runs.
+ *
+ * Keeps KEEP/DEL/ADDFIRST/ADDLAST queues inside the JMeter JVM so {@code __STS}
+ * calls never leave the process. Files are loaded from the DATA directory
+ * (all {@code *.csv} at test start, or on first use) and stored off-heap: row
+ * bytes go into direct-buffer chunks and each queue is a ring of 8-byte row
+ * handles, also off-heap, so a 50M-row dataset costs almost no Java heap.
+ * KEEP moves a handle from head to tail without copying the row. A chunk's
+ * memory is released once every row in it has been taken with DEL, so ADD/DEL
+ * churn in long soak tests does not grow direct memory without bound.
+ *
+ * Direct memory is limited by -XX:MaxDirectMemorySize (defaults to the heap size).
+ *
+ * <pre>
+ *     sts.mode=local     always use the in-process engine
+ *     sts.mode=auto      use it when IS_LOCAL_ENVIRONMENT=true (set by global setup)
+ *     sts.mode=remote    default - always call the Simple Table Server
+ *     sts.local.chunk.mb=16
+ * </pre>
+ */
+public final class STSLocalEngine {
+
+    private static final Logger log = LoggingManager.getLoggerForClass();
+
+    public static final String STS_MODE = "sts.mode";
+    public static final String LOCAL_CHUNK_MB = "sts.local.chunk.mb";
+
+    /** Loaded queues; the future lets other files' callers go on while one file loads */
+    private static final Map<String, CompletableFuture<RowQueue>> queues = new ConcurrentHashMap<>();
+    private static volatile RowArena arena;
+
+    private STSLocalEngine() {}
+
+    /**
+     * Whether STS.exec should use the in-process engine
+     */
+    public static boolean isActive(Properties props) {
+        String mode = props.getProperty(STS_MODE, "remote").trim();
+        if ("local".equalsIgnoreCase(mode)) {
+            return true;
+        }
+        return "auto".equalsIgnoreCase(mode)
+            && Boolean.parseBoolean(props.getProperty("IS_LOCAL_ENVIRONMENT", "false"));
+    }
+
+    /**
+     * Load every CSV file in the DATA directory (test start)
+     */
+    public static void preload(Properties props) {
+        Path dataDir = dataDirectory(props);
+        if (dataDir == null || !Files.isDirectory(dataDir)) {
+            log.warn("STS local engine: DATA directory not found, files will be loaded on first use");
+            return;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dataDir, "*.csv")) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                queue(props, STS.formatFilename(name, props, log), name);
+            }
+        } catch (IOException e) {
+            log.error("STS local engine: error listing " + dataDir + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Take the head row of a file. KEEP puts it back at the tail.
+     *
+     * @return the row, or null if the file is empty
+     */
+    public static String read(Properties props, String filename, String originalFilename, boolean keep) {
+        RowQueue queue = queue(props, filename, originalFilename);
+        queue.lock.lock();
+        try {
+            if (queue.size == 0) {
+                return null;
+            }
+            long handle = queue.pollFirst();
+            if (keep) {
+                queue.addLast(handle);
+                return arena(props).get(handle);
+            }
+            return arena(props).take(handle);
+        } finally {
+            queue.lock.unlock();
+        }
+    }
+
+    /**
+     * Take the head row of a file, waiting up to {@code timeoutMillis} for an
+     * ADD if the file is empty. KEEP puts it back at the tail.
+     *
+     * @return the row, or null if the file is still empty when the timeout expires
+     */
+    public static String await(Properties props, String filename, String originalFilename, boolean keep,
+                               long timeoutMillis) throws InterruptedException {
+        RowQueue queue = queue(props, filename, originalFilename);
+        long remaining = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        queue.lock.lockInterruptibly();
+        try {
+            while (queue.size == 0) {
+                if (remaining <= 0) {
+                    return null;
+                }
+                remaining = queue.notEmpty.awaitNanos(remaining);
+            }
+            long handle = queue.pollFirst();
+            if (keep) {
+                queue.addLast(handle);
+            }
+            if (queue.size > 0) {
+                // Pass the wake-up on: ADD signals one waiter, and more rows may be left
+                queue.notEmpty.signal();
+            }
+            return keep ? arena(props).get(handle) : arena(props).take(handle);
+        } finally {
+            queue.lock.unlock();
+        }
+    }
+
+    /**
+     * Add a row at the head ("FIRST") or tail ("LAST") of a file
+     */
+    public static boolean add(Properties props, String filename, String originalFilename, String addMode, String line) {
+        RowQueue queue = queue(props, filename, originalFilename);
+        long handle = arena(props).put(line);
+        queue.lock.lock();
+        try {
+            if ("FIRST".equals(addMode)) {
+                queue.addFirst(handle);
+            } else {
+                queue.addLast(handle);
+            }
+            queue.notEmpty.signal();
+            return true;
+        } finally {
+            queue.lock.unlock();
+        }
+    }
+
+    /**
+     * Number of rows currently queued for a file
+     */
+    public static int length(Properties props, String filename, String originalFilename) {
+        RowQueue queue = queue(props, filename, originalFilename);
+        queue.lock.lock();
+        try {
+            return queue.size;
+        } finally {
+            queue.lock.unlock();
+        }
+    }
+
+    /**
+     * Drop all queues and release off-heap memory (test end)
+     */
+    public static synchronized void clear() {
+        if (!queues.isEmpty()) {
+            log.info("STS local engine released " + queues.size() + " files");
+        }
+        queues.clear();
+        arena = null;
+    }
+
+    private static RowQueue queue(Properties props, String filename, String originalFilename) {
+        CompletableFuture<RowQueue> queue = queues.get(filename);
+        if (queue == null) {
+            CompletableFuture<RowQueue> loading = new CompletableFuture<>();
+            queue = queues.putIfAbsent(filename, loading);
+            if (queue == null) {
+                // This caller loads the file, outside the map; callers of the same file wait on the future
+                queue = loading;
+                try {
+                    loading.complete(load(props, filename, originalFilename));
+                } catch (RuntimeException | Error e) {
+                    queues.remove(filename, loading);
+                    loading.completeExceptionally(e);
+                    throw e;
+                }
+            }
+        }
+        return queue.join();
+    }
+
+    private static RowQueue load(Properties props, String filename, String originalFilename) {
+        RowQueue queue = new RowQueue(1024);
+        Path dataDir = dataDirectory(props);
+        if (dataDir == null) {
+            return queue;
+        }
+        Path file = dataDir.resolve(originalFilename);
+        if (!Files.isRegularFile(file)) {
+            file = dataDir.resolve(filename);
+        }
+        if (!Files.isRegularFile(file)) {
+            log.info("STS local engine: no data file for " + filename + ", starting empty");
+            return queue;
+        }
+
+        RowArena rows = arena(props);
+        long start = System.currentTimeMillis();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.trim().isEmpty()) {
+                    queue.addLast(rows.put(line));
+                }
+            }
+        } catch (IOException e) {
+            log.error("STS local engine: error loading " + file + ": " + e.getMessage());
+        }
+        log.info("STS local engine loaded " + queue.size + " rows from " + file
+            + " in " + (System.currentTimeMillis() - start) + " ms");
+        return queue;
+    }
+
+    private static Path dataDirectory(Properties props) {
+        String data = props.getProperty("DATA");
+        if (data == null || data.trim().isEmpty()) {
+            return null;
+        }
+        return Paths.get(data.trim());
+    }
+
+    private static RowArena arena(Properties props) {
+        RowArena current = arena;
+        if (current == null) {
+            synchronized (STSLocalEngine.class) {
+                current = arena;
+                if (current == null) {
+                    int chunkMb = STSTransport.intProperty(props, LOCAL_CHUNK_MB, 16);
+                    current = new RowArena(Math.max(1, chunkMb) * 1024 * 1024);
+                    arena = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Append-only off-heap store of UTF-8 rows. A handle is the chunk index in
+     * the upper 32 bits and the byte offset in the lower 32 bits. Each chunk
+     * counts its live rows; when the last one is taken with DEL the chunk is
+     * dropped (its direct memory goes with the buffer) and its index reused.
+     */
+    private static final class RowArena {
+        private final int chunkSize;
+        private final List<ByteBuffer> chunks = new ArrayList<>();
+        private final List<int[]> liveRows = new ArrayList<>();
+        private final ArrayDeque<Integer> freeIndexes = new ArrayDeque<>();
+        private ByteBuffer current;
+        private int currentIndex = -1;
+
+        RowArena(int chunkSize) {
+            this.chunkSize = chunkSize;
+        }
+
+        synchronized long put(String row) {
+            byte[] bytes = row.getBytes(StandardCharsets.UTF_8);
+            int needed = Integer.BYTES + bytes.length;
+            if (current == null || current.remaining() < needed) {
+                int previous = currentIndex;
+                current = ByteBuffer.allocateDirect(Math.max(chunkSize, needed));
+                Integer free = freeIndexes.pollFirst();
+                if (free != null) {
+                    currentIndex = free;
+                    chunks.set(currentIndex, current);
+                    liveRows.set(currentIndex, new int[1]);
+                } else {
+                    currentIndex = chunks.size();
+                    chunks.add(current);
+                    liveRows.add(new int[1]);
+                }
+                if (previous >= 0 && liveRows.get(previous)[0] == 0) {
+                    // Every row of the full chunk was already taken
+                    release(previous);
+                }
+            }
+            int offset = current.position();
+            current.putInt(bytes.length).put(bytes);
+            liveRows.get(currentIndex)[0]++;
+            return ((long) currentIndex << 32) | offset;
+        }
+
+        /**
+         * Read a row that leaves the engine (DEL) and free its space
+         */
+        String take(long handle) {
+            String row = get(handle);
+            int index = (int) (handle >>> 32);
+            synchronized (this) {
+                if (--liveRows.get(index)[0] == 0 && index != currentIndex) {
+                    release(index);
+                }
+            }
+            return row;
+        }
+
+        private void release(int index) {
+            chunks.set(index, null);
+            liveRows.set(index, null);
+            freeIndexes.addLast(index);
+        }
+
+        String get(long handle) {
+            ByteBuffer chunk;
+            synchronized (this) {
+                chunk = chunks.get((int) (handle >>> 32));
+            }
+            int offset = (int) handle;
+            int length = chunk.getInt(offset);
+            byte[] bytes = new byte[length];
+            // Absolute reads on a duplicate so concurrent readers do not share a position
+            ByteBuffer view = chunk.duplicate();
+            view.position(offset + Integer.BYTES);
+            view.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Off-heap ring buffer of row handles for one file
+     */
+    private static final class RowQueue {
+        final ReentrantLock lock = new ReentrantLock();
+        final Condition notEmpty = lock.newCondition();
+        private ByteBuffer handles;
+        private int capacity;
+        private int head;
+        int size;
+
+        RowQueue(int initialCapacity) {
+            capacity = initialCapacity;
+            handles = ByteBuffer.allocateDirect(capacity * Long.BYTES);
+        }
+
+        long pollFirst() {
+            long handle = handles.getLong(head * Long.BYTES);
+            head = (head + 1) % capacity;
+            size--;
+            return handle;
+        }
+
+        void addFirst(long handle) {
+            ensureCapacity();
+            head = (head - 1 + capacity) % capacity;
+            handles.putLong(head * Long.BYTES, handle);
+            size++;
+        }
+
+        void addLast(long handle) {
+            ensureCapacity();
+            handles.putLong(((head + size) % capacity) * Long.BYTES, handle);
+            size++;
+        }
+
+        private void ensureCapacity() {
+            if (size < capacity) {
+                return;
+            }
+            int newCapacity = capacity * 2;
+            ByteBuffer grown = ByteBuffer.allocateDirect(newCapacity * Long.BYTES);
+            for (int i = 0; i < size; i++) {
+                grown.putLong(i * Long.BYTES, handles.getLong(((head + i) % capacity) * Long.BYTES));
+            }
+            handles = grown;
+            capacity = newCapacity;
+            head = 0;
+        }
+    }
+}
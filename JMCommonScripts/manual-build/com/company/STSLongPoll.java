@@ -0,0 +1,146 @@
+package com.company;
+
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Blocking KEEP/DEL reads for files that producers fill during the test.
+ *
+ * Without it a read of an empty file returns EMPTY_FILE straight away and the
+ * script has to retry, which hammers STS exactly when consumers are ahead of
+ * producers. With waiting enabled the read holds the thread until a row
+ * arrives or the timeout expires. The in-process engine waits on the queue
+ * itself and is woken by the next ADD; against a server, {@code /sts/LENGTH}
+ * is polled with a jittered backoff (cheap: no row is moved) and the read is
+ * retried once the file has rows again.
+ *
+ * Each waiting read reports its wait in {@code STS_WAIT_MS}, and per-file
+ * totals are logged at test end, so producer/consumer imbalance is visible.
+ *
+ * <pre>
+ *     sts.wait.enabled=false
+ *     sts.wait.files=orders.csv      (optional, default all files)
+ *     sts.wait.timeout.ms=30000
+ *     sts.wait.poll.min.ms=10
+ *     sts.wait.poll.max.ms=500
+ * </pre>
+ */
+final class STSLongPoll {
+
+    private static final Logger log = LoggingManager.getLoggerForClass();
+
+    static final String ENABLED = "sts.wait.enabled";
+    static final String FILES = "sts.wait.files";
+    static final String TIMEOUT_MS = "sts.wait.timeout.ms";
+    static final String POLL_MIN_MS = "sts.wait.poll.min.ms";
+    static final String POLL_MAX_MS = "sts.wait.poll.max.ms";
+
+    private static final Map<String, Stats> stats = new ConcurrentHashMap<>();
+
+    private STSLongPoll() {}
+
+    /**
+     * Whether reads of this (formatted) filename should wait for data instead of failing
+     */
+    static boolean isEnabledFor(Properties props, String filename) {
+        if (!Boolean.parseBoolean(props.getProperty(ENABLED, "false"))) {
+            return false;
+        }
+        String files = props.getProperty(FILES, "").trim();
+        return files.isEmpty() || STS.isFileListed(files, filename, props);
+    }
+
+    static long timeoutMillis(Properties props) {
+        return Math.max(0, STSTransport.longProperty(props, TIMEOUT_MS, 30000L));
+    }
+
+    /**
+     * Wait for a remote file to get rows again and retry the read
+     *
+     * @param empty the EMPTY_FILE result of the first read
+     * @param read the same read again; must not throw
+     * @return the first result that is not EMPTY_FILE, or the last EMPTY_FILE once the timeout expires
+     */
+    static STSResult await(Properties props, String host, String filename, STSResult empty, Supplier<STSResult> read) {
+        long start = System.currentTimeMillis();
+        long deadline = start + timeoutMillis(props);
+        long minPoll = Math.max(1, STSTransport.longProperty(props, POLL_MIN_MS, 10L));
+        long maxPoll = Math.max(minPoll, STSTransport.longProperty(props, POLL_MAX_MS, 500L));
+
+        STSResult result = empty;
+        long poll = minPoll;
+        try {
+            for (long remaining; (remaining = deadline - System.currentTimeMillis()) > 0; ) {
+                // Half to full backoff, so threads that found the file empty together do not poll in step
+                long delay = poll / 2 + ThreadLocalRandom.current().nextLong(poll / 2 + 1);
+                Thread.sleep(Math.max(1, Math.min(delay, remaining)));
+                poll = Math.min(maxPoll, poll * 2);
+
+                if (STSChannel.hasRows(filename) || STS.length(props, host, filename) > 0) {
+                    result = read.get();
+                    if (!result.isEmptyFile()) {
+                        break;
+                    }
+                    // Another consumer got there first
+                    poll = minPoll;
+                }
+            }
+        } catch (STSCircuitOpenException e) {
+            result = STSResult.circuitOpen(filename, e.getMessage());
+        } catch (IOException e) {
+            log.error("Error polling STS length of " + filename + ": " + e.getMessage(), e);
+            result = STSResult.exception(filename, e);
+        } catch (InterruptedException e) {
+            // Thread stopped while waiting - report the file as still empty
+            Thread.currentThread().interrupt();
+        }
+        long end = System.currentTimeMillis();
+        record(filename, end - start, !result.isEmptyFile());
+        return result.waited(empty.getStartTime(), end, end - start);
+    }
+
+    /**
+     * Count one waiting read
+     *
+     * @param satisfied whether the wait ended with something other than EMPTY_FILE
+     */
+    static void record(String filename, long waitMillis, boolean satisfied) {
+        Stats file = stats.computeIfAbsent(filename, k -> new Stats());
+        file.waits.increment();
+        file.waitMillis.add(waitMillis);
+        file.maxWaitMillis.accumulate(waitMillis);
+        if (!satisfied) {
+            file.timeouts.increment();
+        }
+    }
+
+    /**
+     * Log the wait totals per file and reset them (test end)
+     */
+    static void clear() {
+        for (Map.Entry<String, Stats> entry : stats.entrySet()) {
+            Stats file = entry.getValue();
+            long waits = file.waits.sum();
+            log.info("STS waits on " + entry.getKey() + ": " + waits + " reads waited " + file.waitMillis.sum()
+                + " ms in total (avg " + (waits == 0 ? 0 : file.waitMillis.sum() / waits) + " ms, max "
+                + file.maxWaitMillis.get() + " ms), " + file.timeouts.sum() + " timed out");
+        }
+        stats.clear();
+    }
+
+    private static final class Stats {
+        final LongAdder waits = new LongAdder();
+        final LongAdder timeouts = new LongAdder();
+        final LongAdder waitMillis = new LongAdder();
+        final LongAccumulator maxWaitMillis = new LongAccumulator(Math::max, 0);
+    }
+}
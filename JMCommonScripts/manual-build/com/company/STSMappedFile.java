@@ -0,0 +1,243 @@
+package com.company;
+
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Read-only STS files served from a memory-mapped local CSV.
+ *
+ * Reference data that is only ever read with KEEP does not need a server: the
+ * file is mapped with {@link FileChannel#map}, a line-offset index is built
+ * once (off-heap, 12 bytes per row), and an atomic cursor hands rows out
+ * without locks. KEEP cycles round-robin through the file across all threads;
+ * DEL hands each row out once per test (the two cursors are independent). The
+ * file is mapped in several regions, so files larger than 2 GB work; the OS
+ * page cache holds the data, not the Java heap.
+ *
+ * <pre>
+ *     sts.mapped.files=countries.csv,products.csv   (read from the DATA directory)
+ *     sts.mapped.region.mb=1024                     (size of each mapped region)
+ * </pre>
+ */
+public final class STSMappedFile {
+
+    private static final Logger log = LoggingManager.getLoggerForClass();
+
+    public static final String MAPPED_FILES = "sts.mapped.files";
+    public static final String MAPPED_REGION_MB = "sts.mapped.region.mb";
+
+    private static final Map<String, STSMappedFile> files = new ConcurrentHashMap<>();
+
+    private final Path path;
+    private final long rows;
+    /** Per row: start offset in the file (8 bytes) and length (4 bytes) */
+    private final ByteBuffer index;
+    private final MappedByteBuffer[] regions;
+    private final long[] regionStarts;
+    private final AtomicLong keepCursor = new AtomicLong();
+    private final AtomicLong delCursor = new AtomicLong();
+
+    private STSMappedFile(Path path, long rows, ByteBuffer index, MappedByteBuffer[] regions, long[] regionStarts) {
+        this.path = path;
+        this.rows = rows;
+        this.index = index;
+        this.regions = regions;
+        this.regionStarts = regionStarts;
+    }
+
+    /**
+     * Whether this (formatted) filename is served from a mapped file
+     */
+    public static boolean isMapped(Properties props, String filename) {
+        return STS.isFileListed(props.getProperty(MAPPED_FILES), filename, props);
+    }
+
+    /**
+     * Next row of a mapped file
+     *
+     * @return the row, or null when the file is empty or (DEL) every row has been handed out
+     * @throws IOException if the file cannot be found or mapped
+     */
+    public static String read(Properties props, String filename, String originalFilename, boolean keep) throws IOException {
+        STSMappedFile file = files.get(filename);
+        if (file == null) {
+            file = open(props, filename, originalFilename);
+        }
+        return file.next(keep);
+    }
+
+    /**
+     * Drop every mapping and reset the cursors (test end). The OS unmaps the
+     * regions once they are garbage collected.
+     */
+    public static void clear() {
+        for (STSMappedFile file : files.values()) {
+            log.info("STS mapped file " + file.path + ": " + file.rows + " rows, keep reads="
+                + file.keepCursor.get() + ", del reads=" + Math.min(file.delCursor.get(), file.rows));
+        }
+        files.clear();
+    }
+
+    private static synchronized STSMappedFile open(Properties props, String filename, String originalFilename)
+            throws IOException {
+        STSMappedFile file = files.get(filename);
+        if (file == null) {
+            long regionBytes = Math.min(Integer.MAX_VALUE,
+                Math.max(1, STSTransport.longProperty(props, MAPPED_REGION_MB, 1024L)) * 1024 * 1024);
+            file = map(resolve(props, filename, originalFilename), regionBytes);
+            files.put(filename, file);
+        }
+        return file;
+    }
+
+    private String next(boolean keep) {
+        if (rows == 0) {
+            return null;
+        }
+        long row;
+        if (keep) {
+            row = Math.floorMod(keepCursor.getAndIncrement(), rows);
+        } else {
+            row = delCursor.getAndIncrement();
+            if (row >= rows) {
+                return null;
+            }
+        }
+        long start = index.getLong((int) (row * 12));
+        int length = index.getInt((int) (row * 12 + 8));
+
+        int region = regionOf(start);
+        ByteBuffer view = regions[region].duplicate();
+        view.position((int) (start - regionStarts[region]));
+        byte[] bytes = new byte[length];
+        view.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private int regionOf(long offset) {
+        int low = 0;
+        int high = regionStarts.length - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (regionStarts[mid] <= offset) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    private static Path resolve(Properties props, String filename, String originalFilename) throws IOException {
+        String data = props.getProperty("DATA");
+        Path dataDir = Paths.get(data == null ? "." : data.trim());
+        Path file = dataDir.resolve(originalFilename);
+        if (!Files.isRegularFile(file)) {
+            file = dataDir.resolve(filename);
+        }
+        if (!Files.isRegularFile(file)) {
+            throw new IOException("Mapped STS file not found: " + dataDir.resolve(originalFilename));
+        }
+        return file;
+    }
+
+    /**
+     * Index the non-empty lines of a file and map it in regions that each end
+     * on a line boundary, so no row is split across two regions
+     */
+    private static STSMappedFile map(Path path, long regionBytes) throws IOException {
+        long begin = System.currentTimeMillis();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            ByteBuffer index = ByteBuffer.allocateDirect(12 * 1024);
+            List<Long> regionStarts = new ArrayList<>();
+            long rows = 0;
+            long regionStart = 0;
+            long lineStart = 0;
+            byte previous = 0;
+            regionStarts.add(0L);
+
+            // Scan sequentially; each scan window is mapped only while it is read
+            for (long windowStart = 0; windowStart < size; windowStart += regionBytes) {
+                long windowSize = Math.min(regionBytes, size - windowStart);
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, windowSize);
+                for (int i = 0; i < windowSize; i++) {
+                    byte b = window.get(i);
+                    if (b == '\n') {
+                        long newline = windowStart + i;
+                        if (newline + 1 - regionStart > regionBytes) {
+                            // This line does not fit in the current region - start a new one with it
+                            regionStart = lineStart;
+                            regionStarts.add(regionStart);
+                        }
+                        index = addRow(index, rows, lineStart, previous == '\r' ? newline - 1 : newline);
+                        if (index.getInt((int) (rows * 12 + 8)) > 0) {
+                            rows++;
+                        }
+                        lineStart = newline + 1;
+                    }
+                    previous = b;
+                }
+            }
+            if (lineStart < size) {
+                // Last line without a trailing newline
+                if (size - regionStart > regionBytes) {
+                    regionStart = lineStart;
+                    regionStarts.add(regionStart);
+                }
+                index = addRow(index, rows, lineStart, previous == '\r' ? size - 1 : size);
+                if (index.getInt((int) (rows * 12 + 8)) > 0) {
+                    rows++;
+                }
+            }
+
+            MappedByteBuffer[] regions = new MappedByteBuffer[regionStarts.size()];
+            long[] starts = new long[regions.length];
+            for (int r = 0; r < regions.length; r++) {
+                starts[r] = regionStarts.get(r);
+                long end = r + 1 < regions.length ? regionStarts.get(r + 1) : size;
+                regions[r] = channel.map(FileChannel.MapMode.READ_ONLY, starts[r], end - starts[r]);
+            }
+            log.info("STS mapped " + path + ": " + rows + " rows, " + size + " bytes in " + regions.length
+                + " regions, indexed in " + (System.currentTimeMillis() - begin) + " ms");
+            return new STSMappedFile(path, rows, index, regions, starts);
+        }
+    }
+
+    /**
+     * Write row {@code row} of the index, growing it if needed. A blank line
+     * gets length 0 and is overwritten by the next row.
+     */
+    private static ByteBuffer addRow(ByteBuffer index, long row, long start, long end) throws IOException {
+        long position = row * 12;
+        if (position + 12 > Integer.MAX_VALUE) {
+            throw new IOException("Too many rows for a mapped STS file (limit " + Integer.MAX_VALUE / 12 + ")");
+        }
+        if (position + 12 > index.capacity()) {
+            ByteBuffer grown = ByteBuffer.allocateDirect((int) Math.min(Integer.MAX_VALUE, (long) index.capacity() * 2));
+            ByteBuffer old = index.duplicate();
+            old.position(0).limit((int) position);
+            grown.put(old);
+            index = grown;
+        }
+        index.putLong((int) position, start);
+        index.putInt((int) position + 8, (int) (end - start));
+        return index;
+    }
+}
@@ -0,0 +1,250 @@
+package com.company;
+
+import org.apache.jmeter.threads.JMeterVariables;
+import org.apache.log.Logger;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * Immutable, pre-compiled form of an STS Configuration operations table.
+ *
+ * Built once per test (and shared by every thread's clone of the sampler), it
+ * holds each row's parsed action, its repository-prefixed filename and its
+ * variables/values split into literal text and {@code ${var}} references.
+ * Rows without references are split into arguments up front, so a sample
+ * only resolves the rows that actually use variables. Rows are also grouped
+ * into waves that can be issued concurrently (see {@link #waveEnd}).
+ */
+final class STSOperationPlan {
+
+    private final String source;
+    private final String repoName;
+    private final Step[] steps;
+    private final int[] waveEnds;
+
+    private STSOperationPlan(String source, String repoName, Step[] steps, int[] waveEnds) {
+        this.source = source;
+        this.repoName = repoName;
+        this.steps = steps;
+        this.waveEnds = waveEnds;
+    }
+
+    /**
+     * Compile an operations table ("file;ACTION;vars/values;comment|...", or the
+     * legacy comma-separated row format)
+     */
+    static STSOperationPlan compile(String operations, Properties props, Logger log) {
+        List<Step> steps = new ArrayList<>();
+        for (String operation : operations.split("\\|")) {
+            operation = operation.trim();
+            if (operation.isEmpty()) continue;
+
+            String[] parts;
+            // Check if this is new semicolon format or legacy comma format
+            if (operation.contains(";")) {
+                // New format: use semicolon as separator (avoids conflict with commas in Variables/Values)
+                parts = operation.split(";", 4);
+            } else {
+                // Legacy format: use comma as separator (for backward compatibility)
+                parts = operation.split(",", 4);
+            }
+
+            if (parts.length < 3) continue;
+
+            String filename = parts[0].trim();
+            String action = parts[1].trim();
+            String variablesValues = parts[2].trim(); // Can contain commas in new format
+            // parts[3] would be comment - not used for execution
+
+            if (filename.isEmpty() || variablesValues.isEmpty()) continue;
+
+            steps.add(new Step(action, filename, STS.formatFilename(filename, props, log), variablesValues));
+        }
+
+        Step[] compiled = steps.toArray(new Step[0]);
+        int[] waveEnds = new int[compiled.length];
+        int start = 0;
+        while (start < compiled.length) {
+            int end = independentRunEnd(compiled, start);
+            for (int i = start; i < end; i++) {
+                waveEnds[i] = end;
+            }
+            start = end;
+        }
+        return new STSOperationPlan(operations, props.getProperty("GIT_REPO_NAME"), compiled, waveEnds);
+    }
+
+    /**
+     * Whether this plan was compiled from the same table and repository name
+     */
+    boolean isCompiledFrom(String operations, String currentRepoName) {
+        return source.equals(operations) && Objects.equals(repoName, currentRepoName);
+    }
+
+    int size() {
+        return steps.length;
+    }
+
+    Step step(int index) {
+        return steps[index];
+    }
+
+    /**
+     * End (exclusive) of the wave that starts at {@code index}: the rows in it
+     * do not depend on each other and can be issued together
+     */
+    int waveEnd(int index) {
+        return waveEnds[index];
+    }
+
+    /**
+     * A row starts a new wave when it references a variable read by an earlier
+     * row of the wave, or uses a file the wave already touches (so e.g. a DEL
+     * and a later ADDFIRST on the same file keep their order).
+     */
+    private static int independentRunEnd(Step[] steps, int start) {
+        Set<String> readVariables = new HashSet<>();
+        Set<String> files = new HashSet<>();
+        int i = start;
+        for (; i < steps.length; i++) {
+            Step step = steps[i];
+            String file = step.formattedFilename.toUpperCase();
+            if (i > start && (files.contains(file) || step.template.referencesAny(readVariables))) {
+                break;
+            }
+            files.add(file);
+            if (step.action != null && step.action.isRead()) {
+                for (String name : step.template.text.split(",")) {
+                    readVariables.add(name.trim());
+                }
+            }
+        }
+        return i;
+    }
+
+    /**
+     * One table row
+     */
+    static final class Step {
+        /** Parsed action, or null if the table names an unknown one */
+        final STS.Action action;
+        final String actionName;
+        final String filename;
+        final String formattedFilename;
+        final Template template;
+        /** Arguments and command when the row has no variable references, else null */
+        private final String[] staticArgs;
+        private final String staticCommand;
+
+        Step(String actionName, String filename, String formattedFilename, String variablesValues) {
+            this.action = STS.Action.parse(actionName);
+            this.actionName = actionName;
+            this.filename = filename;
+            this.formattedFilename = formattedFilename;
+            this.template = Template.parse(variablesValues);
+            this.staticArgs = template.isConstant() ? variablesValues.split(",") : null;
+            this.staticCommand = template.isConstant() ? actionName + "," + filename + "," + variablesValues : null;
+        }
+
+        /**
+         * Variable names (KEEP/DEL) or values (ADDFIRST/ADDLAST) for this sample
+         */
+        String[] args(JMeterVariables vars, Logger log) {
+            if (staticArgs != null) {
+                return staticArgs;
+            }
+            return template.resolve(vars, log).split(",");
+        }
+
+        /**
+         * The STS command this row ran with the given arguments, as STS.exec would receive it
+         */
+        String command(String[] args) {
+            if (staticCommand != null) {
+                return staticCommand;
+            }
+            return actionName + "," + filename + "," + String.join(",", args);
+        }
+    }
+
+    /**
+     * Text split into literal segments and {@code ${name}} references.
+     * {@code literals} has one more entry than {@code names}.
+     */
+    static final class Template {
+        final String text;
+        private final String[] literals;
+        private final String[] names;
+
+        private Template(String text, String[] literals, String[] names) {
+            this.text = text;
+            this.literals = literals;
+            this.names = names;
+        }
+
+        static Template parse(String text) {
+            List<String> literals = new ArrayList<>();
+            List<String> names = new ArrayList<>();
+            StringBuilder literal = new StringBuilder();
+            int from = 0;
+            int open;
+            while ((open = text.indexOf("${", from)) >= 0) {
+                int close = text.indexOf('}', open + 2);
+                if (close < 0) {
+                    break;
+                }
+                if (close == open + 2) {
+                    // "${}" is not a reference - keep it as text
+                    literal.append(text, from, close + 1);
+                } else {
+                    literal.append(text, from, open);
+                    literals.add(literal.toString());
+                    literal.setLength(0);
+                    names.add(text.substring(open + 2, close));
+                }
+                from = close + 1;
+            }
+            literals.add(literal.append(text, from, text.length()).toString());
+            return new Template(text, literals.toArray(new String[0]), names.toArray(new String[0]));
+        }
+
+        boolean isConstant() {
+            return names.length == 0;
+        }
+
+        boolean referencesAny(Set<String> variables) {
+            for (String name : names) {
+                if (variables.contains(name)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Substitute variable values; unknown variables are kept as {@code ${name}}
+         */
+        String resolve(JMeterVariables vars, Logger log) {
+            if (names.length == 0) {
+                return text;
+            }
+            StringBuilder result = new StringBuilder(text.length() + 32);
+            for (int i = 0; i < names.length; i++) {
+                result.append(literals[i]);
+                String value = vars.get(names[i]);
+                if (value != null) {
+                    result.append(value);
+                } else {
+                    log.warn("Variable " + names[i] + " not found, keeping ${" + names[i] + "} as-is");
+                    result.append("${").append(names[i]).append('}');
+                }
+            }
+            return result.append(literals[names.length]).toString();
+        }
+    }
+}
@@ -0,0 +1,360 @@
+package com.company;
+
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Client-side prefetch buffer for STS KEEP/DEL reads.
+ *
+ * One buffer exists per formatted filename and read mode. A background
+ * refiller pulls rows from the server in bulk (READMULTI) whenever the buffer
+ * falls to the low watermark, topping it up to the high watermark, so JMeter
+ * threads normally take a row from memory with no network wait. Rows still
+ * buffered for DEL files are returned to the server with ADDFIRST at test end,
+ * after waiting for a refill in flight; a refill that lands later still
+ * returns its rows itself.
+ *
+ * Enable with JMeter properties:
+ * <pre>
+ *     sts.prefetch.enabled=true
+ *     sts.prefetch.files=applications.csv,users.csv   (optional, default all files)
+ *     sts.prefetch.high.watermark=500
+ *     sts.prefetch.low.watermark=100
+ *     sts.prefetch.wait.ms=5000
+ * </pre>
+ */
+public final class STSPrefetchBuffer {
+
+    private static final Logger log = LoggingManager.getLoggerForClass();
+
+    public static final String PREFETCH_ENABLED = "sts.prefetch.enabled";
+    public static final String PREFETCH_FILES = "sts.prefetch.files";
+    public static final String PREFETCH_HIGH_WATERMARK = "sts.prefetch.high.watermark";
+    public static final String PREFETCH_LOW_WATERMARK = "sts.prefetch.low.watermark";
+    public static final String PREFETCH_WAIT_MS = "sts.prefetch.wait.ms";
+
+    private static final Map<String, STSPrefetchBuffer> buffers = new ConcurrentHashMap<>();
+
+    /** Refill threads of the current test; shut down by {@link #releaseAll} */
+    private static ExecutorService refiller;
+
+    private final Properties props;
+    private final String host;
+    private final String filename;
+    private final boolean keep;
+    private final int highWatermark;
+    private final int lowWatermark;
+    private final long waitNanos;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition refilled = lock.newCondition();
+    private final ArrayDeque<String> rows;
+    private boolean refillInFlight;
+    /** Set at test end: no more takes or refills */
+    private boolean closed;
+    /** Set once release has collected the rows; a refill landing later returns its own rows */
+    private boolean released;
+    private boolean lastRefillEmpty;
+    private IOException lastRefillFailure;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder blockingWaits = new LongAdder();
+    private final LongAdder refills = new LongAdder();
+    private final LongAdder rowsFetched = new LongAdder();
+
+    private STSPrefetchBuffer(Properties props, String host, String filename, boolean keep) {
+        this.props = props;
+        this.host = host;
+        this.filename = filename;
+        this.keep = keep;
+        this.highWatermark = Math.max(1, STSTransport.intProperty(props, PREFETCH_HIGH_WATERMARK, 500));
+        this.lowWatermark = Math.min(highWatermark - 1,
+            Math.max(0, STSTransport.intProperty(props, PREFETCH_LOW_WATERMARK, highWatermark / 5)));
+        this.waitNanos = TimeUnit.MILLISECONDS.toNanos(STSTransport.longProperty(props, PREFETCH_WAIT_MS, 5000L));
+        this.rows = new ArrayDeque<>(highWatermark);
+    }
+
+    /**
+     * Whether reads of this (formatted) filename should go through a prefetch buffer
+     */
+    public static boolean isEnabledFor(Properties props, String filename) {
+        if (!Boolean.parseBoolean(props.getProperty(PREFETCH_ENABLED, "false"))) {
+            return false;
+        }
+        String files = props.getProperty(PREFETCH_FILES, "").trim();
+        return files.isEmpty() || STS.isFileListed(files, filename, props);
+    }
+
+    /**
+     * Shared buffer for a formatted filename and read mode
+     */
+    public static STSPrefetchBuffer forFile(Properties props, String host, String filename, boolean keep) {
+        String key = host + "|" + filename + "|" + (keep ? "KEEP" : "DEL");
+        return buffers.computeIfAbsent(key, k -> new STSPrefetchBuffer(props, host, filename, keep));
+    }
+
+    /**
+     * Take the next row, waiting for a refill if the buffer is empty.
+     *
+     * @return the CSV row, or null when the server has no rows left
+     * @throws IOException if the refill failed or did not finish in time
+     */
+    public String take() throws IOException {
+        lock.lock();
+        try {
+            if (closed) {
+                throw new IOException("STS prefetch of " + filename + " is closed");
+            }
+            String row = rows.pollFirst();
+            if (row != null) {
+                hits.increment();
+                if (rows.size() <= lowWatermark) {
+                    scheduleRefill();
+                }
+                return row;
+            }
+
+            // Buffer drained - this thread has to wait for the network
+            blockingWaits.increment();
+            scheduleRefill();
+            long remaining = waitNanos;
+            while ((row = rows.pollFirst()) == null) {
+                if (!refillInFlight) {
+                    if (lastRefillFailure != null) {
+                        throw lastRefillFailure;
+                    }
+                    if (lastRefillEmpty) {
+                        return null;
+                    }
+                }
+                if (remaining <= 0L) {
+                    throw new IOException("Timed out waiting for STS prefetch of " + filename);
+                }
+                remaining = refilled.awaitNanos(remaining);
+            }
+            return row;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for STS prefetch of " + filename, e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Put rows taken with {@link #take} back at the head of the buffer, in
+     * their order (a multi-row read that could not be filled)
+     */
+    public void putBack(List<String> taken) {
+        boolean late;
+        lock.lock();
+        try {
+            late = released;
+            if (!late) {
+                for (int i = taken.size() - 1; i >= 0; i--) {
+                    rows.addFirst(taken.get(i));
+                }
+                refilled.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (late && !keep) {
+            // Released meanwhile: return them to the server like the other unused rows
+            pushBack(taken);
+        }
+    }
+
+    /** Must be called with the lock held */
+    private void scheduleRefill() {
+        if (refillInFlight || closed) {
+            return;
+        }
+        refillInFlight = true;
+        int wanted = highWatermark - rows.size();
+        try {
+            refiller().execute(() -> refill(wanted));
+        } catch (RejectedExecutionException e) {
+            // Test ending: the executor was shut down under us
+            refillInFlight = false;
+            lastRefillFailure = new IOException("STS prefetch of " + filename + " stopped", e);
+        }
+    }
+
+    private static synchronized ExecutorService refiller() {
+        if (refiller == null) {
+            AtomicInteger count = new AtomicInteger();
+            refiller = Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r, "STS-prefetch-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        return refiller;
+    }
+
+    private void refill(int wanted) {
+        List<String> fetched = null;
+        IOException failure = null;
+        try {
+            fetched = STS.readMulti(props, host, filename, keep, wanted);
+        } catch (IOException e) {
+            failure = e;
+            log.warn("STS prefetch of " + filename + " failed: " + e.getMessage());
+        } catch (RuntimeException e) {
+            failure = new IOException(e.getMessage(), e);
+            log.warn("STS prefetch of " + filename + " failed: " + e.getMessage());
+        }
+
+        List<String> late = null;
+        lock.lock();
+        try {
+            if (fetched != null) {
+                if (released) {
+                    late = fetched;
+                } else {
+                    rows.addAll(fetched);
+                }
+                refills.increment();
+                rowsFetched.add(fetched.size());
+            }
+            lastRefillFailure = failure;
+            lastRefillEmpty = fetched != null && fetched.isEmpty();
+            refillInFlight = false;
+            refilled.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        if (late != null && !keep) {
+            // Landed after the buffer was released: nobody else will return these rows
+            log.info("STS prefetch " + filename + ": refill finished after release, returned="
+                + pushBack(late) + "/" + late.size());
+        }
+    }
+
+    /**
+     * Remove all buffered rows; DEL rows are pushed back to the head of the
+     * server-side file so no data is lost.
+     */
+    private void release() {
+        List<String> unused;
+        boolean refillPending;
+        lock.lock();
+        try {
+            closed = true;
+            // Let a refill already on its way land here, so its rows are returned in order
+            long remaining = waitNanos;
+            while (refillInFlight && remaining > 0L) {
+                try {
+                    remaining = refilled.awaitNanos(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            refillPending = refillInFlight;
+            released = true;
+            unused = new ArrayList<>(rows);
+            rows.clear();
+        } finally {
+            lock.unlock();
+        }
+
+        int returned = keep ? 0 : pushBack(unused);
+        log.info("STS prefetch " + this + (keep ? "" : ", returned=" + returned + "/" + unused.size())
+            + (refillPending ? ", refill still running (it returns its own rows)" : ""));
+    }
+
+    /**
+     * Return DEL rows to the head of the server-side file
+     *
+     * @return the number of rows returned
+     */
+    private int pushBack(List<String> unused) {
+        int returned = 0;
+        // Push back in reverse so the server sees the original order
+        for (int i = unused.size() - 1; i >= 0; i--) {
+            if (STS.add(log, props, host, filename, "FIRST", new String[] { unused.get(i) }).isOk()) {
+                returned++;
+            }
+        }
+        return returned;
+    }
+
+    /**
+     * Rows taken from the server with DEL and not yet handed out
+     */
+    static int leasedRows(String host, String filename) {
+        STSPrefetchBuffer buffer = buffers.get(host + "|" + filename + "|DEL");
+        if (buffer == null) {
+            return 0;
+        }
+        buffer.lock.lock();
+        try {
+            return buffer.rows.size();
+        } finally {
+            buffer.lock.unlock();
+        }
+    }
+
+    /**
+     * Return unused rows to the server, drop every buffer and stop the refill
+     * threads (test end); the next test starts a new executor
+     */
+    public static void releaseAll() {
+        for (String key : new ArrayList<>(buffers.keySet())) {
+            STSPrefetchBuffer buffer = buffers.remove(key);
+            if (buffer != null) {
+                buffer.release();
+            }
+        }
+        synchronized (STSPrefetchBuffer.class) {
+            if (refiller != null) {
+                // Refills still running finish and return their own rows
+                refiller.shutdown();
+                refiller = null;
+            }
+        }
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getBlockingWaits() {
+        return blockingWaits.sum();
+    }
+
+    public long getRefills() {
+        return refills.sum();
+    }
+
+    public long getRowsFetched() {
+        return rowsFetched.sum();
+    }
+
+    @Override
+    public String toString() {
+        return filename + (keep ? " [KEEP]" : " [DEL]")
+            + ": hits=" + getHits()
+            + ", blockingWaits=" + getBlockingWaits()
+            + ", refills=" + getRefills()
+            + ", rowsFetched=" + getRowsFetched();
+    }
+}
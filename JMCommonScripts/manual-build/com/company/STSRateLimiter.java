@@ -0,0 +1,263 @@
+package com.company;
+
+import com.company.jfr.STSRateLimitEvent;
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Token-bucket limit on the requests this generator sends to STS.
+ *
+ * During ramp-up thousands of threads can hit {@code /sts/READ} in the same
+ * second. Every HTTP request to STS (reads, adds, READMULTI refills, LENGTH
+ * polls) first takes a token from the global bucket and, if its file is
+ * listed, from that file's bucket. A bucket is a single atomic "next free
+ * slot" time (GCRA): taking a token is one CAS, and a thread that is early
+ * parks until its slot instead of spinning or queueing on a lock. Rows served
+ * without a request (prefetch buffer, channels, local engine) are not limited.
+ *
+ * The wait is not part of the request's STS timing; it is counted per bucket,
+ * logged at test end and recorded as a JFR event, so STS capacity can be
+ * sized against the load model.
+ *
+ * <pre>
+ *     sts.rate.limit=0                          (requests/s for the generator, 0 = unlimited)
+ *     sts.rate.limit.files=users.csv:50,orders.csv:20
+ *     sts.rate.burst=0                          (requests let through at once, 0 = a tenth of the rate)
+ * </pre>
+ */
+final class STSRateLimiter {
+
+    private static final Logger log = LoggingManager.getLoggerForClass();
+
+    static final String RATE = "sts.rate.limit";
+    static final String FILE_RATES = "sts.rate.limit.files";
+    static final String BURST = "sts.rate.burst";
+
+    private static volatile Limits limits = new Limits("", "", "", null, new ArrayList<>());
+
+    private STSRateLimiter() {}
+
+    /**
+     * Wait for a token of the global bucket and of the file's bucket, if any
+     *
+     * @throws InterruptedIOException if the thread is interrupted while waiting
+     */
+    static void acquire(Properties props, String filename) throws InterruptedIOException {
+        Limits current = limits(props);
+        if (current.global == null && current.files.isEmpty()) {
+            return;
+        }
+        if (current.global != null) {
+            current.global.acquire(filename);
+        }
+        if (!current.files.isEmpty() && filename != null) {
+            Bucket file = current.forFile(props, filename);
+            if (file != null) {
+                file.acquire(filename);
+            }
+        }
+    }
+
+    /**
+     * Log what every bucket held back and start the next test with fresh buckets (test end)
+     */
+    static void clear() {
+        Limits current = limits;
+        if (current.global != null) {
+            current.global.logStats();
+        }
+        for (Bucket bucket : current.files) {
+            bucket.logStats();
+        }
+        limits = new Limits("", "", "", null, new ArrayList<>());
+    }
+
+    private static Limits limits(Properties props) {
+        Limits current = limits;
+        String rate = props.getProperty(RATE, "");
+        String fileRates = props.getProperty(FILE_RATES, "");
+        String burst = props.getProperty(BURST, "");
+        if (current.isFor(rate, fileRates, burst)) {
+            return current;
+        }
+        synchronized (STSRateLimiter.class) {
+            current = limits;
+            if (!current.isFor(rate, fileRates, burst)) {
+                current = Limits.parse(rate, fileRates, burst);
+                limits = current;
+            }
+            return current;
+        }
+    }
+
+    /**
+     * Buckets built from one set of property values
+     */
+    private static final class Limits {
+        final String rate;
+        final String fileRates;
+        final String burst;
+        final Bucket global;
+        final List<Bucket> files;
+        /** Formatted filename to its bucket, or to NONE when it is not listed */
+        private final Map<String, Bucket> byFilename = new ConcurrentHashMap<>();
+
+        Limits(String rate, String fileRates, String burst, Bucket global, List<Bucket> files) {
+            this.rate = rate;
+            this.fileRates = fileRates;
+            this.burst = burst;
+            this.global = global;
+            this.files = files;
+        }
+
+        boolean isFor(String rate, String fileRates, String burst) {
+            return this.rate.equals(rate) && this.fileRates.equals(fileRates) && this.burst.equals(burst);
+        }
+
+        Bucket forFile(Properties props, String filename) {
+            Bucket bucket = byFilename.computeIfAbsent(filename, name -> {
+                for (Bucket candidate : files) {
+                    if (STS.isFileListed(candidate.name, name, props)) {
+                        return candidate;
+                    }
+                }
+                return Bucket.NONE;
+            });
+            return bucket == Bucket.NONE ? null : bucket;
+        }
+
+        static Limits parse(String rate, String fileRates, String burst) {
+            int burstSize = parseInt(burst, BURST);
+            double globalRate = parseRate(rate, RATE);
+            Bucket global = globalRate > 0 ? new Bucket("global", globalRate, burstSize) : null;
+
+            List<Bucket> files = new ArrayList<>();
+            for (String entry : fileRates.trim().split("\\s*,\\s*")) {
+                if (entry.isEmpty()) {
+                    continue;
+                }
+                int colon = entry.lastIndexOf(':');
+                double fileRate = colon < 0 ? 0 : parseRate(entry.substring(colon + 1), FILE_RATES);
+                if (fileRate <= 0) {
+                    log.warn("Ignoring " + FILE_RATES + " entry '" + entry + "' - expected file:requestsPerSecond");
+                    continue;
+                }
+                files.add(new Bucket(entry.substring(0, colon).trim(), fileRate, burstSize));
+            }
+            if (global != null || !files.isEmpty()) {
+                log.info("STS rate limit: " + (global != null ? global.rate + " requests/s" : "no global limit")
+                    + (files.isEmpty() ? "" : ", per file " + fileRates.trim()));
+            }
+            return new Limits(rate, fileRates, burst, global, files);
+        }
+
+        private static double parseRate(String value, String property) {
+            if (value == null || value.trim().isEmpty()) {
+                return 0;
+            }
+            try {
+                return Double.parseDouble(value.trim());
+            } catch (NumberFormatException e) {
+                log.warn("Invalid " + property + " value '" + value + "', no limit applied");
+                return 0;
+            }
+        }
+
+        private static int parseInt(String value, String property) {
+            return (int) Math.max(0, parseRate(value, property));
+        }
+    }
+
+    /**
+     * One token bucket, kept as the time the next token is due (generic cell
+     * rate algorithm). A request may run up to the tolerance ahead of that
+     * time, which is what lets a burst through.
+     */
+    private static final class Bucket {
+        static final Bucket NONE = new Bucket("none", 1, 1);
+
+        final String name;
+        final double rate;
+        /** Time between tokens, and how far ahead of schedule a burst may run */
+        private final long intervalNanos;
+        private final long toleranceNanos;
+        private final AtomicLong nextFree = new AtomicLong(System.nanoTime());
+
+        private final LongAdder requests = new LongAdder();
+        private final LongAdder waits = new LongAdder();
+        private final LongAdder waitNanos = new LongAdder();
+        private final LongAccumulator maxWaitNanos = new LongAccumulator(Math::max, 0);
+
+        Bucket(String name, double rate, int burst) {
+            this.name = name;
+            this.rate = rate;
+            this.intervalNanos = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / rate));
+            int size = burst > 0 ? burst : Math.max(1, (int) (rate / 10));
+            this.toleranceNanos = (size - 1) * intervalNanos;
+        }
+
+        void acquire(String filename) throws InterruptedIOException {
+            requests.increment();
+            long now = System.nanoTime();
+            long slot;
+            while (true) {
+                long free = nextFree.get();
+                slot = Math.max(free, now);
+                if (nextFree.compareAndSet(free, slot + intervalNanos)) {
+                    break;
+                }
+            }
+            // Up to the burst tolerance ahead of the token schedule goes straight through
+            long wait = slot - toleranceNanos - now;
+            if (wait <= 0) {
+                return;
+            }
+
+            STSRateLimitEvent event = new STSRateLimitEvent();
+            event.begin();
+            // The slot is already ours; park until it comes round (parkNanos may return early)
+            long deadline = now + wait;
+            for (long remaining = wait; remaining > 0; remaining = deadline - System.nanoTime()) {
+                LockSupport.parkNanos(this, remaining);
+                if (Thread.interrupted()) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted waiting for the STS rate limit");
+                }
+            }
+            event.end();
+            if (event.shouldCommit()) {
+                event.limiter = name;
+                event.filename = filename;
+                event.rate = rate;
+                event.commit();
+            }
+            waits.increment();
+            waitNanos.add(wait);
+            maxWaitNanos.accumulate(wait);
+        }
+
+        void logStats() {
+            long total = requests.sum();
+            if (total == 0) {
+                return;
+            }
+            long waited = waits.sum();
+            log.info("STS rate limit " + name + " (" + rate + "/s): " + total + " requests, " + waited
+                + " waited " + TimeUnit.NANOSECONDS.toMillis(waitNanos.sum()) + " ms in total (avg "
+                + (waited == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(waitNanos.sum() / waited)) + " ms, max "
+                + TimeUnit.NANOSECONDS.toMillis(maxWaitNanos.get()) + " ms)");
+        }
+    }
+}
@@ -0,0 +1,374 @@
+package com.company;
+
+import org.apache.jmeter.threads.JMeterVariables;
+import org.apache.log.Logger;
+
+/**
+ * Outcome of one STS operation.
+ *
+ * Reads carry the row split into columns; adds carry only the status. The
+ * synchronous {@link STS#exec} applies the result to JMeter variables with the
+ * same error markers as before ({@code <file>-EMPTY_FILE_ERROR},
+ * {@code <file>-HTTP_ERROR_<code>}, ...). Async callers get the result from
+ * {@link STSAsync} and call {@link #applyTo} on the sampler thread, since
+ * JMeterVariables is not thread-safe.
+ */
+public final class STSResult {
+
+    /** Reported by name in JFR events; STSRequestEvent's status description lists them */
+    public enum Status {
+        /** Row read or line added */
+        OK,
+        /** The file has no more rows */
+        EMPTY_FILE,
+        /** The server answered with a non-200 status */
+        HTTP_ERROR,
+        /** The server answered 200 but the body could not be parsed, or ADD did not return OK */
+        PARSE_ERROR,
+        /** The request failed (connection refused, timeout, ...) */
+        EXCEPTION,
+        /** The command itself is invalid (unknown action, no STS host); nothing was sent */
+        INVALID,
+        /** The host's circuit breaker is open; failed fast without sending anything */
+        CIRCUIT_OPEN
+    }
+
+    private static final String[] NO_COLUMNS = new String[0];
+
+    private final Status status;
+    private final String filename;
+    private final String row;
+    private final String[] columns;
+    private final String[] varNames;
+    private final int httpStatus;
+    private final String message;
+
+    // Timing (epoch ms for start/end, durations in ms) and size of the exchange
+    private final long startTime;
+    private final long endTime;
+    private final long connectTime;
+    private final long tlsTime;
+    private final long latency;
+    private final long bytes;
+    private final long sentBytes;
+    /** Time a waiting read spent waiting for a producer (sts.wait.enabled), -1 if it did not wait */
+    private final long waitMillis;
+    /** Read with LEASE: applying it records the row for return at the next iteration */
+    private final boolean leased;
+    /** CONSUME: applying it keeps the thread's leased rows of the file */
+    private final boolean consume;
+    /** The request provably never reached the server, so sending it again cannot duplicate it */
+    private final boolean notSent;
+
+    private STSResult(Status status, String filename, String row, String[] varNames, int httpStatus, String message) {
+        this(status, filename, row, varNames, httpStatus, message, false, status == Status.CIRCUIT_OPEN);
+    }
+
+    private STSResult(Status status, String filename, String row, String[] varNames, int httpStatus, String message,
+                      boolean consume, boolean notSent) {
+        this.status = status;
+        this.filename = filename;
+        this.row = row;
+        this.columns = row == null ? NO_COLUMNS : row.split(",");
+        this.varNames = varNames == null ? NO_COLUMNS : varNames;
+        this.httpStatus = httpStatus;
+        this.message = message;
+        this.startTime = 0;
+        this.endTime = 0;
+        this.connectTime = 0;
+        this.tlsTime = 0;
+        this.latency = 0;
+        this.bytes = 0;
+        this.sentBytes = 0;
+        this.waitMillis = -1;
+        this.leased = false;
+        this.consume = consume;
+        this.notSent = notSent;
+    }
+
+    private STSResult(STSResult base, String[] varNames, long startTime, long endTime, long connectTime,
+                      long tlsTime, long latency, long bytes, long sentBytes, long waitMillis, boolean leased) {
+        this.status = base.status;
+        this.filename = base.filename;
+        this.row = base.row;
+        this.columns = base.columns;
+        this.varNames = varNames == null ? NO_COLUMNS : varNames;
+        this.httpStatus = base.httpStatus;
+        this.message = base.message;
+        this.startTime = startTime;
+        this.endTime = endTime;
+        this.connectTime = connectTime;
+        this.tlsTime = tlsTime;
+        this.latency = latency;
+        this.bytes = bytes;
+        this.sentBytes = sentBytes;
+        this.waitMillis = waitMillis;
+        this.leased = leased;
+        this.consume = base.consume;
+        this.notSent = base.notSent;
+    }
+
+    static STSResult row(String filename, String row) {
+        return new STSResult(Status.OK, filename, row, null, 200, null);
+    }
+
+    static STSResult added(String filename) {
+        return new STSResult(Status.OK, filename, null, null, 200, null);
+    }
+
+    /**
+     * CONSUME needs no server call; the leased rows are kept when the result is applied
+     */
+    static STSResult consumed(String filename) {
+        return new STSResult(Status.OK, filename, null, null, 200, null, true, false);
+    }
+
+    static STSResult emptyFile(String filename) {
+        return new STSResult(Status.EMPTY_FILE, filename, null, null, 200, "No more data available in file: " + filename);
+    }
+
+    static STSResult httpError(String filename, int httpStatus) {
+        return new STSResult(Status.HTTP_ERROR, filename, null, null, httpStatus,
+            "STS request failed with status code: " + httpStatus);
+    }
+
+    static STSResult parseError(String filename, String message) {
+        return new STSResult(Status.PARSE_ERROR, filename, null, null, 200, message);
+    }
+
+    static STSResult exception(String filename, Exception e) {
+        return new STSResult(Status.EXCEPTION, filename, null, null, 0, String.valueOf(e.getMessage()), false,
+            STS.isNotSent(e));
+    }
+
+    static STSResult invalid(String filename, String message) {
+        return new STSResult(Status.INVALID, filename, null, null, 0, message);
+    }
+
+    static STSResult circuitOpen(String filename, String message) {
+        return new STSResult(Status.CIRCUIT_OPEN, filename, null, null, 0, message);
+    }
+
+    /**
+     * Copy of this result bound to the variable names of a KEEP/DEL command
+     */
+    STSResult withVarNames(String[] names) {
+        return new STSResult(this, names, startTime, endTime, connectTime, tlsTime, latency, bytes, sentBytes, waitMillis, leased);
+    }
+
+    /**
+     * Copy of this result for a LEASE: a row is recorded for return when the result is applied
+     */
+    STSResult asLease() {
+        return new STSResult(this, varNames, startTime, endTime, connectTime, tlsTime, latency, bytes, sentBytes,
+            waitMillis, true);
+    }
+
+    /**
+     * Copy of this result with the timing of an HTTP exchange
+     */
+    STSResult timed(long start, long end, long connect, long tls, long firstByte, long received, long sent) {
+        return new STSResult(this, varNames, start, end, connect, tls, firstByte, received, sent, waitMillis, leased);
+    }
+
+    /**
+     * Copy of this result with start and end time, unless it already has timing
+     */
+    STSResult timedIfUnset(long start, long end) {
+        if (startTime != 0) {
+            return this;
+        }
+        return new STSResult(this, varNames, start, end, 0, 0, 0, 0, 0, waitMillis, leased);
+    }
+
+    /**
+     * Copy of this result after waiting {@code millis} for data. A timed
+     * result is stretched to cover the whole wait, from {@code firstStart}
+     * (when the read that found the file empty was sent) to {@code end}.
+     */
+    STSResult waited(long firstStart, long end, long millis) {
+        if (startTime == 0 || firstStart == 0) {
+            return new STSResult(this, varNames, startTime, endTime, connectTime, tlsTime, latency, bytes, sentBytes,
+                millis, leased);
+        }
+        long start = Math.min(startTime, firstStart);
+        return new STSResult(this, varNames, start, Math.max(endTime, end), connectTime, tlsTime,
+            latency + (startTime - start), bytes, sentBytes, millis, leased);
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public boolean isOk() {
+        return status == Status.OK;
+    }
+
+    public boolean isEmptyFile() {
+        return status == Status.EMPTY_FILE;
+    }
+
+    /** Whether the call was skipped because STS is failing; callers can skip dependent work */
+    public boolean isCircuitOpen() {
+        return status == Status.CIRCUIT_OPEN;
+    }
+
+    /**
+     * Whether the request provably never reached the server (circuit open,
+     * connection refused or not made in time), so it can be sent again
+     * without duplicating it. Timeouts after the request was sent and error
+     * responses are not: the server may have acted on them.
+     */
+    public boolean isNotSent() {
+        return notSent;
+    }
+
+    /** Formatted (repository-prefixed) filename the operation ran against */
+    public String getFilename() {
+        return filename;
+    }
+
+    /** The raw CSV row, or null if nothing was read */
+    public String getRow() {
+        return row;
+    }
+
+    /** The row split on commas (untrimmed); empty if nothing was read */
+    public String[] getColumns() {
+        return columns.clone();
+    }
+
+    /** Trimmed column value, or null if the row has fewer columns */
+    public String getColumn(int index) {
+        return index >= 0 && index < columns.length ? columns[index].trim() : null;
+    }
+
+    /** HTTP status of the STS response, 0 if no response was received */
+    public int getHttpStatus() {
+        return httpStatus;
+    }
+
+    /** Error description, or null for OK */
+    public String getMessage() {
+        return message;
+    }
+
+    /** Epoch ms when the operation started, 0 if not measured */
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /** Epoch ms when the operation (including the response body) completed */
+    public long getEndTime() {
+        return endTime;
+    }
+
+    /** Time to open a new connection, including TLS; 0 when a pooled connection was reused */
+    public long getConnectTime() {
+        return connectTime;
+    }
+
+    /** TLS handshake part of the connect time */
+    public long getTlsTime() {
+        return tlsTime;
+    }
+
+    /** Time to the response headers, including connect time (as JMeter reports latency) */
+    public long getLatency() {
+        return latency;
+    }
+
+    /** Bytes received: response headers and body */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /** Bytes sent: request line, headers and body */
+    public long getSentBytes() {
+        return sentBytes;
+    }
+
+    /** Time spent waiting for a producer to add a row (sts.wait.enabled), -1 if the read did not wait */
+    public long getWaitTime() {
+        return waitMillis;
+    }
+
+    /**
+     * Store this result in JMeter variables using the variable names from the
+     * KEEP/DEL command, exactly as {@link STS#exec} does.
+     *
+     * @return true if a row was stored
+     */
+    public boolean applyTo(Logger log, JMeterVariables vars) {
+        if (consume) {
+            if (STSIterationLease.consume(vars, filename) == 0) {
+                log.warn("STS: CONSUME " + filename + " - no row of it is leased in this iteration");
+                return false;
+            }
+            return true;
+        }
+        if (waitMillis >= 0) {
+            vars.put("STS_WAIT_MS", Long.toString(waitMillis));
+        }
+        switch (status) {
+            case OK:
+                // Store each column in the corresponding variable
+                for (int i = 0; i < varNames.length && i < columns.length; i++) {
+                    vars.put(varNames[i], columns[i].trim());
+                    log.debug("Stored column " + (i+1) + " in variable " + varNames[i] + ": " + columns[i].trim());
+                }
+                if (leased) {
+                    STSIterationLease.borrow(vars, filename, row);
+                }
+                // Clear the empty file and circuit flags if they exist
+                vars.put("STS_FILE_EMPTY", "false");
+                vars.put("STS_CIRCUIT_OPEN", "false");
+                return true;
+            case EMPTY_FILE:
+                log.warn(message);
+                putAll(log, vars, filename + "-EMPTY_FILE_ERROR", "empty file error");
+                vars.put("STS_FILE_EMPTY", "true");
+                vars.put("STS_FILE_EMPTY_NAME", filename);
+                return false;
+            case HTTP_ERROR:
+                log.error(message);
+                putAll(log, vars, filename + "-HTTP_ERROR_" + httpStatus, "error");
+                return false;
+            case PARSE_ERROR:
+                log.error(message);
+                putAll(log, vars, filename + "-PARSE_ERROR", "parse error");
+                return false;
+            case EXCEPTION:
+                // Already logged with its stack trace where it was caught
+                putAll(log, vars, filename + "-EXCEPTION_ERROR: " + message.substring(0, Math.min(50, message.length())),
+                    "exception error");
+                vars.put("STS_ERROR", "true");
+                vars.put("STS_ERROR_MESSAGE", message);
+                return false;
+            case CIRCUIT_OPEN:
+                // Logged once when the breaker opens; one line per skipped call would flood the log
+                for (String varName : varNames) {
+                    vars.put(varName, filename + "-CIRCUIT_OPEN");
+                }
+                vars.put("STS_CIRCUIT_OPEN", "true");
+                return false;
+            default:
+                log.error("STS: " + message);
+                return false;
+        }
+    }
+
+    private void putAll(Logger log, JMeterVariables vars, String value, String kind) {
+        for (String varName : varNames) {
+            vars.put(varName, value);
+            log.info("Set " + kind + " value for variable " + varName + ": " + value);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "STSResult[" + status + ", " + filename
+            + (row != null ? ", row=" + row : "")
+            + (message != null ? ", " + message : "") + "]";
+    }
+}
@@ -0,0 +1,197 @@
+package com.company;
+
+import org.apache.jmeter.threads.AbstractThreadGroup;
+import org.apache.jmeter.threads.JMeterContext;
+import org.apache.jmeter.threads.JMeterContextService;
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Thread-affine leasing for STS DEL reads.
+ *
+ * Each JMeter thread (thread group name and thread number) claims a block of
+ * rows per file with one READMULTI KEEP=FALSE and consumes them locally, going
+ * back to the server only when its block is used up. Threads no longer queue
+ * on the head of the same server-side file for every row, and STS sees one
+ * call per block. Rows a thread has not consumed are returned to the head of
+ * the file with ADDFIRST when the test ends.
+ *
+ * A leased row belongs to one thread, so rows are not handed out in strict
+ * file order across threads. Work a JMeter thread hands to other threads
+ * (parallel STS Configuration rows, STSAsync) keeps that thread's leases: the
+ * owner is resolved on the JMeter thread and passed with the work
+ * ({@link #onBehalfOf}).
+ *
+ * <pre>
+ *     sts.lease.enabled=false
+ *     sts.lease.files=users.csv        (optional, default all files read with DEL)
+ *     sts.lease.block.size=10
+ * </pre>
+ */
+public final class STSThreadLease {
+
+    private static final Logger log = LoggingManager.getLoggerForClass();
+
+    public static final String LEASE_ENABLED = "sts.lease.enabled";
+    public static final String LEASE_FILES = "sts.lease.files";
+    public static final String LEASE_BLOCK_SIZE = "sts.lease.block.size";
+
+    /** Leases per JMeter thread, kept for the return at test end */
+    private static final Map<String, Leases> threads = new ConcurrentHashMap<>();
+    private static final ThreadLocal<Leases> current = new ThreadLocal<>();
+    /** Owner of the work this thread is running for a JMeter thread, if any */
+    private static final ThreadLocal<String> runningFor = new ThreadLocal<>();
+
+    private static final LongAdder claims = new LongAdder();
+    private static final LongAdder rowsLeased = new LongAdder();
+
+    private STSThreadLease() {}
+
+    /**
+     * Whether DEL reads of this (formatted) filename should be leased per thread
+     */
+    public static boolean isEnabledFor(Properties props, String filename) {
+        if (!Boolean.parseBoolean(props.getProperty(LEASE_ENABLED, "false"))) {
+            return false;
+        }
+        String files = props.getProperty(LEASE_FILES, "").trim();
+        return files.isEmpty() || STS.isFileListed(files, filename, props);
+    }
+
+    /**
+     * Next row of the calling thread's lease, claiming a new block if it is used up
+     *
+     * @return the row, or null when the server has no rows left
+     */
+    public static String take(Properties props, String host, String filename) throws IOException {
+        Leases leases = leases();
+        Lease lease = leases.files.computeIfAbsent(host + "|" + filename, k -> new Lease(host, filename));
+
+        // Rows of a parallel wave may take from the same lease on different threads
+        synchronized (lease) {
+            String row = lease.rows.pollFirst();
+            if (row == null) {
+                int blockSize = Math.max(1, STSTransport.intProperty(props, LEASE_BLOCK_SIZE, 10));
+                List<String> block = STS.readMulti(props, host, filename, false, blockSize);
+                claims.increment();
+                rowsLeased.add(block.size());
+                lease.rows.addAll(block);
+                row = lease.rows.pollFirst();
+            }
+            return row;
+        }
+    }
+
+    /**
+     * Run {@code operation} with the leases of {@code owner} (from {@link #owner}
+     * on the JMeter thread) on whatever thread executes it
+     */
+    static <T> Supplier<T> onBehalfOf(String owner, Supplier<T> operation) {
+        return () -> {
+            String previous = runningFor.get();
+            runningFor.set(owner);
+            try {
+                return operation.get();
+            } finally {
+                if (previous == null) {
+                    runningFor.remove();
+                } else {
+                    runningFor.set(previous);
+                }
+            }
+        };
+    }
+
+    /**
+     * Return every unconsumed row to the head of its file and forget all leases (test end)
+     */
+    public static void releaseAll(Properties props) {
+        int returned = 0;
+        int unused = 0;
+        for (Leases leases : threads.values()) {
+            leases.released = true;
+            for (Lease lease : leases.files.values()) {
+                // Push back in reverse so the server sees the original order
+                List<String> rows;
+                synchronized (lease) {
+                    rows = new ArrayList<>(lease.rows);
+                    lease.rows.clear();
+                }
+                for (int i = rows.size() - 1; i >= 0; i--) {
+                    String row = rows.get(i);
+                    unused++;
+                    if (STS.add(log, props, lease.host, lease.filename, "FIRST", new String[] { row }).isOk()) {
+                        returned++;
+                    }
+                }
+            }
+        }
+        if (claims.sum() > 0) {
+            log.info("STS thread leases: threads=" + threads.size() + ", claims=" + claims.sum()
+                + ", rowsLeased=" + rowsLeased.sum() + ", returned=" + returned + "/" + unused);
+        }
+        threads.clear();
+        claims.reset();
+        rowsLeased.reset();
+    }
+
+    private static Leases leases() {
+        String runningForOwner = runningFor.get();
+        if (runningForOwner != null) {
+            return threads.computeIfAbsent(runningForOwner, k -> new Leases());
+        }
+        Leases leases = current.get();
+        if (leases == null || leases.released) {
+            String owner = owner();
+            leases = threads.computeIfAbsent(owner, k -> new Leases());
+            current.set(leases);
+        }
+        return leases;
+    }
+
+    /**
+     * "Thread Group-3" for JMeter threads (or the JMeter thread the caller runs
+     * work for), the Java thread name otherwise
+     */
+    static String owner() {
+        String owner = runningFor.get();
+        if (owner != null) {
+            return owner;
+        }
+        JMeterContext ctx = JMeterContextService.getContext();
+        AbstractThreadGroup group = ctx.getThreadGroup();
+        if (group == null) {
+            return Thread.currentThread().getName();
+        }
+        return group.getName() + "-" + ctx.getThreadNum();
+    }
+
+    /**
+     * One JMeter thread's leases, touched by that thread and the work it hands off
+     */
+    private static final class Leases {
+        final Map<String, Lease> files = new ConcurrentHashMap<>();
+        volatile boolean released;
+    }
+
+    private static final class Lease {
+        final String host;
+        final String filename;
+        final ArrayDeque<String> rows = new ArrayDeque<>();
+
+        Lease(String host, String filename) {
+            this.host = host;
+            this.filename = filename;
+        }
+    }
+}
@@ -0,0 +1,312 @@
+package com.company;
+
+import org.apache.http.HttpHost;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.config.SocketConfig;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.NoopHostnameVerifier;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.ssl.SSLContextBuilder;
+import org.apache.http.ssl.TrustStrategy;
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+
+import javax.net.ssl.SSLContext;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.security.cert.X509Certificate;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Process-wide HTTP transport shared by every STS call in the JVM
+ * (STS.exec, __STS, STSHelper and the STS Configuration sampler).
+ *
+ * One pooled, keep-alive client is built on first use and reused until the
+ * test ends, so each JMeter thread borrows an already-open (and, for HTTPS,
+ * already-negotiated) connection instead of paying a TCP and TLS handshake
+ * per row. The trust-all SSLContext is created once, which lets JSSE resume
+ * TLS sessions from its client session cache. Connections are pooled per
+ * host, so when V_STS_HOST lists several servers (see {@link STSHostRing})
+ * each gets up to {@code sts.pool.max.per.route} connections; size
+ * {@code sts.pool.max.total} for all of them.
+ *
+ * Pool sizing is read from JMeter properties on first use:
+ * <pre>
+ *     sts.pool.max.total=200
+ *     sts.pool.max.per.route=100
+ *     sts.pool.keepalive.ms=30000
+ *     sts.pool.idle.evict.ms=60000
+ *     sts.pool.validate.after.inactivity.ms=2000
+ * </pre>
+ *
+ * Every request has explicit timeouts, and failures are handled by STS itself
+ * rather than HttpClient's silent retries: each host has a
+ * {@link STSCircuitBreaker}, and idempotent requests (KEEP reads, READMULTI
+ * KEEP, LENGTH) are retried with jittered exponential backoff. Other requests
+ * are retried only when the connection could not be opened, since nothing
+ * reached the server.
+ * <pre>
+ *     sts.connect.timeout.ms=5000
+ *     sts.read.timeout.ms=10000
+ *     sts.pool.acquire.timeout.ms=5000
+ *     sts.retry.max=2
+ *     sts.retry.base.ms=50
+ *     sts.retry.max.ms=1000
+ * </pre>
+ */
+public final class STSTransport {
+
+    private static final Logger log = LoggingManager.getLoggerForClass();
+
+    public static final String POOL_MAX_TOTAL = "sts.pool.max.total";
+    public static final String POOL_MAX_PER_ROUTE = "sts.pool.max.per.route";
+    public static final String POOL_KEEPALIVE_MS = "sts.pool.keepalive.ms";
+    public static final String POOL_IDLE_EVICT_MS = "sts.pool.idle.evict.ms";
+    public static final String POOL_VALIDATE_MS = "sts.pool.validate.after.inactivity.ms";
+    public static final String CONNECT_TIMEOUT_MS = "sts.connect.timeout.ms";
+    public static final String READ_TIMEOUT_MS = "sts.read.timeout.ms";
+    public static final String POOL_ACQUIRE_TIMEOUT_MS = "sts.pool.acquire.timeout.ms";
+    public static final String RETRY_MAX = "sts.retry.max";
+    public static final String RETRY_BASE_MS = "sts.retry.base.ms";
+    public static final String RETRY_MAX_MS = "sts.retry.max.ms";
+
+    /** HttpContext attributes (Long, ms) set when a request had to open a new connection */
+    static final String CONNECT_MILLIS = "sts.connect.ms";
+    static final String TLS_MILLIS = "sts.tls.ms";
+
+    private static volatile STSTransport instance;
+
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final CloseableHttpClient httpClient;
+    private final Properties props;
+    private final Map<String, STSCircuitBreaker> breakers = new ConcurrentHashMap<>();
+    private final int retryMax;
+    private final long retryBaseMillis;
+    private final long retryMaxMillis;
+
+    private STSTransport(Properties props) {
+        this.props = props;
+        int maxTotal = intProperty(props, POOL_MAX_TOTAL, 200);
+        int maxPerRoute = intProperty(props, POOL_MAX_PER_ROUTE, 100);
+        long keepAliveMillis = longProperty(props, POOL_KEEPALIVE_MS, 30000L);
+        long idleEvictMillis = longProperty(props, POOL_IDLE_EVICT_MS, 60000L);
+        int validateMillis = intProperty(props, POOL_VALIDATE_MS, 2000);
+        int connectTimeout = intProperty(props, CONNECT_TIMEOUT_MS, 5000);
+        int readTimeout = intProperty(props, READ_TIMEOUT_MS, 10000);
+        int acquireTimeout = intProperty(props, POOL_ACQUIRE_TIMEOUT_MS, connectTimeout);
+        retryMax = Math.max(0, intProperty(props, RETRY_MAX, 2));
+        retryBaseMillis = Math.max(1, longProperty(props, RETRY_BASE_MS, 50L));
+        retryMaxMillis = Math.max(retryBaseMillis, longProperty(props, RETRY_MAX_MS, 1000L));
+
+        Registry<ConnectionSocketFactory> registry = RegistryBuilder.<ConnectionSocketFactory>create()
+            .register("http", new TimedPlainSocketFactory())
+            .register("https", new TimedSslSocketFactory(createTrustAllSslContext()))
+            .build();
+
+        connectionManager = new PoolingHttpClientConnectionManager(registry);
+        connectionManager.setMaxTotal(maxTotal);
+        connectionManager.setDefaultMaxPerRoute(maxPerRoute);
+        connectionManager.setValidateAfterInactivity(validateMillis);
+        connectionManager.setDefaultSocketConfig(SocketConfig.custom().setSoTimeout(readTimeout).build());
+
+        httpClient = HttpClients.custom()
+            .setConnectionManager(connectionManager)
+            .setDefaultRequestConfig(RequestConfig.custom()
+                .setConnectTimeout(connectTimeout)
+                .setSocketTimeout(readTimeout)
+                .setConnectionRequestTimeout(acquireTimeout)
+                .build())
+            // Retries are decided per request by STS (see retryDelay)
+            .disableAutomaticRetries()
+            .setKeepAliveStrategy((response, context) -> {
+                // Honour a server Keep-Alive header but never hold a socket longer than configured
+                long serverMillis = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+                return serverMillis > 0 ? Math.min(serverMillis, keepAliveMillis) : keepAliveMillis;
+            })
+            // No per-user connection state: lets every thread reuse pooled TLS connections
+            .disableConnectionState()
+            .evictExpiredConnections()
+            .evictIdleConnections(idleEvictMillis, TimeUnit.MILLISECONDS)
+            .build();
+
+        log.info("STS transport created: maxTotal=" + maxTotal + ", maxPerRoute=" + maxPerRoute
+            + ", keepAlive=" + keepAliveMillis + "ms, idleEvict=" + idleEvictMillis + "ms, connectTimeout="
+            + connectTimeout + "ms, readTimeout=" + readTimeout + "ms, retries=" + retryMax);
+    }
+
+    /**
+     * Return the shared transport, creating it from the given properties on first use
+     */
+    public static STSTransport get(Properties props) {
+        STSTransport current = instance;
+        if (current == null) {
+            synchronized (STSTransport.class) {
+                current = instance;
+                if (current == null) {
+                    current = new STSTransport(props);
+                    instance = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Shared pooled client. Callers must consume or close each response so the
+     * connection is returned to the pool.
+     */
+    public CloseableHttpClient client() {
+        return httpClient;
+    }
+
+    /**
+     * Circuit breaker for one STS host (host:port as in V_STS_HOST)
+     */
+    STSCircuitBreaker breaker(String host) {
+        return breakers.computeIfAbsent(host, h -> new STSCircuitBreaker(props, h));
+    }
+
+    /**
+     * Backoff before retry number {@code attempt} (1-based), or -1 when no
+     * retries are left. Full jitter: uniform in [0, min(max, base * 2^(attempt-1))].
+     */
+    long retryDelay(int attempt) {
+        if (attempt > retryMax) {
+            return -1;
+        }
+        long ceiling = Math.min(retryMaxMillis, retryBaseMillis << Math.min(attempt - 1, 20));
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    /**
+     * Current pool usage across all STS hosts
+     */
+    public PoolStats getStats() {
+        return connectionManager.getTotalStats();
+    }
+
+    /**
+     * Close the shared client and all pooled connections. The next STS call
+     * builds a fresh transport, so this is safe to call at every test end.
+     */
+    public static void shutdown() {
+        STSTransport current;
+        synchronized (STSTransport.class) {
+            current = instance;
+            instance = null;
+        }
+        if (current != null) {
+            try {
+                current.httpClient.close();
+                log.info("STS transport closed");
+            } catch (IOException e) {
+                log.warn("Error closing STS transport: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Create an SSLContext that ignores certificate validation (like curl -k)
+     */
+    private static SSLContext createTrustAllSslContext() {
+        try {
+            return SSLContextBuilder.create()
+                .loadTrustMaterial(null, new TrustStrategy() {
+                    @Override
+                    public boolean isTrusted(X509Certificate[] chain, String authType) {
+                        return true;
+                    }
+                })
+                .build();
+        } catch (Exception e) {
+            log.warn("Could not create trust-all SSLContext, using JVM default: " + e.getMessage());
+            return org.apache.http.ssl.SSLContexts.createDefault();
+        }
+    }
+
+    /**
+     * Records TCP connect time in the request context
+     */
+    private static final class TimedPlainSocketFactory extends PlainConnectionSocketFactory {
+        @Override
+        public Socket connectSocket(int connectTimeout, Socket socket, HttpHost host, InetSocketAddress remoteAddress,
+                                    InetSocketAddress localAddress, HttpContext context) throws IOException {
+            long start = System.currentTimeMillis();
+            Socket connected = super.connectSocket(connectTimeout, socket, host, remoteAddress, localAddress, context);
+            if (context != null) {
+                context.setAttribute(CONNECT_MILLIS, System.currentTimeMillis() - start);
+            }
+            return connected;
+        }
+    }
+
+    /**
+     * Records connect time (TCP and TLS, as JMeter reports it) and the TLS handshake on its own
+     */
+    private static final class TimedSslSocketFactory extends SSLConnectionSocketFactory {
+        TimedSslSocketFactory(SSLContext sslContext) {
+            super(sslContext, NoopHostnameVerifier.INSTANCE);
+        }
+
+        @Override
+        public Socket connectSocket(int connectTimeout, Socket socket, HttpHost host, InetSocketAddress remoteAddress,
+                                    InetSocketAddress localAddress, HttpContext context) throws IOException {
+            long start = System.currentTimeMillis();
+            Socket connected = super.connectSocket(connectTimeout, socket, host, remoteAddress, localAddress, context);
+            if (context != null) {
+                context.setAttribute(CONNECT_MILLIS, System.currentTimeMillis() - start);
+            }
+            return connected;
+        }
+
+        @Override
+        public Socket createLayeredSocket(Socket socket, String target, int port, HttpContext context) throws IOException {
+            long start = System.currentTimeMillis();
+            Socket layered = super.createLayeredSocket(socket, target, port, context);
+            if (context != null) {
+                context.setAttribute(TLS_MILLIS, System.currentTimeMillis() - start);
+            }
+            return layered;
+        }
+    }
+
+    static int intProperty(Properties props, String name, int defaultValue) {
+        String value = props == null ? null : props.getProperty(name);
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            log.warn("Invalid value for " + name + ": " + value + ", using " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    static long longProperty(Properties props, String name, long defaultValue) {
+        String value = props == null ? null : props.getProperty(name);
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            log.warn("Invalid value for " + name + ": " + value + ", using " + defaultValue);
+            return defaultValue;
+        }
+    }
+}
@@ -0,0 +1,338 @@
+package com.company;
+
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Asynchronous write-behind queue for STS ADDFIRST/ADDLAST.
+ *
+ * Rows are queued per formatted filename and add mode and the calling thread
+ * returns immediately. A background flusher sends a file's queued rows when
+ * the batch size is reached or when the flush interval elapses. Everything
+ * still queued is sent on test end; ADDs offered while that drain runs are
+ * refused, so the caller sends them synchronously instead.
+ *
+ * Only rows that provably never reached the server (circuit open, connection
+ * refused or not made in time) are retried, with exponential backoff; a row
+ * that timed out after it was sent or got an error response is logged and
+ * dropped, since the server may already have added it. A row waiting for its
+ * retry stays at the head of its batch, so rows still reach the server in the
+ * order they were queued; the flush threads do not wait for it.
+ *
+ * The simple table server accepts one LINE per ADD, so this is not request
+ * batching: each row is still its own request, sent on pooled connections off
+ * the sampler thread. The batch size only decides when a flush starts.
+ *
+ * <pre>
+ *     sts.writebehind.enabled=true
+ *     sts.writebehind.sync.files=orders.csv     (files that need read-after-write stay synchronous)
+ *     sts.writebehind.batch.size=100
+ *     sts.writebehind.flush.ms=1000
+ *     sts.writebehind.max.rows=100000           (memory bound across all files)
+ *     sts.writebehind.retries=3
+ *     sts.writebehind.retry.backoff.ms=200
+ * </pre>
+ */
+public final class STSWriteBehind {
+
+    private static final Logger log = LoggingManager.getLoggerForClass();
+
+    public static final String WRITEBEHIND_ENABLED = "sts.writebehind.enabled";
+    public static final String WRITEBEHIND_SYNC_FILES = "sts.writebehind.sync.files";
+    public static final String WRITEBEHIND_BATCH_SIZE = "sts.writebehind.batch.size";
+    public static final String WRITEBEHIND_FLUSH_MS = "sts.writebehind.flush.ms";
+    public static final String WRITEBEHIND_MAX_ROWS = "sts.writebehind.max.rows";
+    public static final String WRITEBEHIND_RETRIES = "sts.writebehind.retries";
+    public static final String WRITEBEHIND_RETRY_BACKOFF_MS = "sts.writebehind.retry.backoff.ms";
+
+    private static final Map<String, Batch> batches = new ConcurrentHashMap<>();
+    private static final AtomicInteger pendingRows = new AtomicInteger();
+
+    private static final LongAdder queued = new LongAdder();
+    private static final LongAdder flushed = new LongAdder();
+    private static final LongAdder retried = new LongAdder();
+    private static final LongAdder failed = new LongAdder();
+    private static final LongAdder overflowed = new LongAdder();
+
+    private static ScheduledExecutorService flusher;
+
+    /** Offers hold the read lock while queueing, so drain can shut them out before it flushes */
+    private static final ReentrantReadWriteLock drainLock = new ReentrantReadWriteLock();
+    private static volatile boolean draining;
+
+    private STSWriteBehind() {}
+
+    /**
+     * Whether ADDs to this (formatted) filename should be written behind
+     */
+    public static boolean isEnabledFor(Properties props, String filename) {
+        if (!Boolean.parseBoolean(props.getProperty(WRITEBEHIND_ENABLED, "false"))) {
+            return false;
+        }
+        return !STS.isFileListed(props.getProperty(WRITEBEHIND_SYNC_FILES, ""), filename, props);
+    }
+
+    /**
+     * Queue a row for asynchronous ADD.
+     *
+     * @return false if the memory limit is reached or the queue is being
+     *         drained - the caller should then add synchronously
+     */
+    public static boolean offer(Properties props, String host, String filename, String addMode, String line) {
+        if (!drainLock.readLock().tryLock()) {
+            return false; // drain in progress
+        }
+        try {
+            if (draining) {
+                return false;
+            }
+            int maxRows = STSTransport.intProperty(props, WRITEBEHIND_MAX_ROWS, 100000);
+            if (pendingRows.incrementAndGet() > maxRows) {
+                pendingRows.decrementAndGet();
+                overflowed.increment();
+                return false;
+            }
+
+            String key = host + "|" + filename + "|" + addMode;
+            Batch batch = batches.computeIfAbsent(key, k -> new Batch(props, host, filename, addMode));
+            batch.rows.add(line);
+            queued.increment();
+
+            ScheduledExecutorService executor = flusher(props);
+            if (batch.size.incrementAndGet() >= batch.batchSize) {
+                executor.execute(() -> batch.flush(false));
+            }
+            return true;
+        } finally {
+            drainLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Send every queued row synchronously and stop the periodic flusher (test end)
+     */
+    public static void drain() {
+        // Wait for offers already queueing; later ones see draining and go synchronous
+        drainLock.writeLock().lock();
+        try {
+            draining = true;
+        } finally {
+            drainLock.writeLock().unlock();
+        }
+        try {
+            drainQueued();
+        } finally {
+            draining = false;
+        }
+    }
+
+    private static void drainQueued() {
+        ScheduledExecutorService executor;
+        synchronized (STSWriteBehind.class) {
+            executor = flusher;
+            flusher = null;
+        }
+        if (executor != null) {
+            executor.shutdown();
+            try {
+                executor.awaitTermination(30, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        for (Batch batch : batches.values()) {
+            while (!batch.flush(true)) {
+                batch.awaitRetry();
+            }
+        }
+        batches.clear();
+
+        if (queued.sum() > 0) {
+            log.info("STS write-behind drained: queued=" + queued.sum() + ", flushed=" + flushed.sum()
+                + ", retried=" + retried.sum() + ", failed=" + failed.sum() + ", overflowed=" + overflowed.sum());
+        }
+    }
+
+    public static int getPendingRows() {
+        return pendingRows.get();
+    }
+
+    private static synchronized ScheduledExecutorService flusher(Properties props) {
+        if (flusher == null) {
+            long flushMillis = Math.max(10L, STSTransport.longProperty(props, WRITEBEHIND_FLUSH_MS, 1000L));
+            flusher = Executors.newScheduledThreadPool(2, new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "STS-writebehind-" + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            flusher.scheduleWithFixedDelay(() -> {
+                for (Batch batch : batches.values()) {
+                    batch.flush(false);
+                }
+            }, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+        }
+        return flusher;
+    }
+
+    /**
+     * Rows waiting for one file and add mode
+     */
+    private static final class Batch {
+        private final Properties props;
+        private final String host;
+        private final String filename;
+        private final String addMode;
+        private final int batchSize;
+        private final int retries;
+        private final long backoffMillis;
+
+        private final ConcurrentLinkedQueue<String> rows = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger size = new AtomicInteger();
+        // Serialises flushes so rows reach the server in the order they were queued
+        private final ReentrantLock flushLock = new ReentrantLock();
+
+        // The row waiting to be sent again, ahead of the queued rows; guarded by flushLock
+        private String retryLine;
+        private int retryAttempt;
+        /** System.nanoTime when the held row may be sent again */
+        private volatile long retryAt;
+
+        Batch(Properties props, String host, String filename, String addMode) {
+            this.props = props;
+            this.host = host;
+            this.filename = filename;
+            this.addMode = addMode;
+            this.batchSize = Math.max(1, STSTransport.intProperty(props, WRITEBEHIND_BATCH_SIZE, 100));
+            this.retries = Math.max(0, STSTransport.intProperty(props, WRITEBEHIND_RETRIES, 3));
+            this.backoffMillis = Math.max(0L, STSTransport.longProperty(props, WRITEBEHIND_RETRY_BACKOFF_MS, 200L));
+        }
+
+        /**
+         * Send the held row, if its backoff is over, then the queued rows
+         *
+         * @param wait wait for a flush already running instead of leaving the rows to it
+         * @return false if a row is held for a retry, with rows still queued behind it
+         */
+        boolean flush(boolean wait) {
+            if (wait) {
+                flushLock.lock();
+            } else if (!flushLock.tryLock()) {
+                return true; // another flusher is already sending this batch
+            }
+            try {
+                if (retryLine != null) {
+                    if (retryAt - System.nanoTime() > 0) {
+                        return false; // still backing off
+                    }
+                    String line = retryLine;
+                    retryLine = null;
+                    if (!send(line, retryAttempt)) {
+                        return false;
+                    }
+                }
+                String line;
+                while ((line = rows.poll()) != null) {
+                    size.decrementAndGet();
+                    if (!send(line, 0)) {
+                        return false;
+                    }
+                }
+                return true;
+            } finally {
+                flushLock.unlock();
+            }
+        }
+
+        /**
+         * Wait out the held row's backoff (test end drain); if interrupted, give the row up
+         */
+        void awaitRetry() {
+            long waitNanos = retryAt - System.nanoTime();
+            if (waitNanos <= 0) {
+                return;
+            }
+            try {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                flushLock.lock();
+                try {
+                    if (retryLine != null) {
+                        giveUp(retryLine);
+                        retryLine = null;
+                    }
+                } finally {
+                    flushLock.unlock();
+                }
+            }
+        }
+
+        /**
+         * Send one row; called with flushLock held
+         *
+         * @return false if the row is now held for a retry
+         */
+        private boolean send(String line, int attempt) {
+            if (attempt > 0) {
+                retried.increment();
+            }
+            STSResult result = STS.add(log, props, host, filename, addMode, new String[] { line });
+            if (result.isOk()) {
+                flushed.increment();
+                pendingRows.decrementAndGet();
+                return true;
+            }
+            if (result.isNotSent() && attempt < retries && !Thread.currentThread().isInterrupted()) {
+                long delay = backoffMillis << Math.min(attempt, 20);
+                retryLine = line;
+                retryAttempt = attempt + 1;
+                retryAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay);
+                scheduleRetry(delay);
+                return false;
+            }
+            giveUp(line);
+            return true;
+        }
+
+        private void scheduleRetry(long delayMillis) {
+            ScheduledExecutorService executor;
+            synchronized (STSWriteBehind.class) {
+                executor = flusher;
+            }
+            if (executor == null) {
+                return; // the test end drain waits for the retry itself
+            }
+            try {
+                executor.schedule(() -> flush(false), delayMillis, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // flusher shut down: the drain sends the held row
+            }
+        }
+
+        private void giveUp(String line) {
+            failed.increment();
+            pendingRows.decrementAndGet();
+            log.error("STS write-behind gave up on " + filename + " (" + addMode + "): " + line);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.company.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Pacing decision at the start of an iteration (PacingConfigJMeter or
+ * GroupInitUtil). The event duration is the
+ * time actually spent waiting; {@code plannedWaitMillis} is what pacing asked
+ * for, and {@code overrunMillis} is how far the previous iteration ran past
+ * its pacing interval (no wait possible).
+ */
+@Name("com.company.PacingWait")
+@Label("Pacing Wait")
+@Category({ "JMeter", "Pacing" })
+@Description("Wait applied between iterations to hold the pacing interval")
+@StackTrace(false)
+public final class PacingWaitEvent extends jdk.jfr.Event {
+
+    @Label("Thread Group")
+    public String threadGroup;
+
+    @Label("Thread Number")
+    public int threadNum;
+
+    @Label("Iteration")
+    public int iteration;
+
+    @Label("Pacing (ms)")
+    public long pacingMillis;
+
+    @Label("Previous Iteration (ms)")
+    @Description("Time from the previous iteration's start to this pacing check")
+    public long elapsedMillis;
+
+    @Label("Planned Wait (ms)")
+    public long plannedWaitMillis;
+
+    @Label("Overrun (ms)")
+    @Description("How far the previous iteration exceeded its pacing interval, 0 if it did not")
+    public long overrunMillis;
+
+    /**
+     * Begin timing a wait. Costs next to nothing when the event is disabled.
+     */
+    public static PacingWaitEvent start() {
+        PacingWaitEvent event = new PacingWaitEvent();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * End the wait and commit the event if it is enabled and over its threshold
+     */
+    public void finish(String threadGroup, int threadNum, int iteration, long pacingMillis, long elapsedMillis) {
+        end();
+        if (shouldCommit()) {
+            this.threadGroup = threadGroup;
+            this.threadNum = threadNum;
+            this.iteration = iteration;
+            this.pacingMillis = pacingMillis;
+            this.elapsedMillis = elapsedMillis;
+            this.plannedWaitMillis = Math.max(0, pacingMillis - elapsedMillis);
+            this.overrunMillis = Math.max(0, elapsedMillis - pacingMillis);
+            commit();
+        }
+    }
+}
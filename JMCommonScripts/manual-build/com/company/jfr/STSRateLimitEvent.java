@@ -0,0 +1,29 @@
+package com.company.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Time an STS request was held back by the client-side rate limiter. Only
+ * requests that had to wait are recorded; the event duration is the wait.
+ */
+@Name("com.company.STSRateLimit")
+@Label("STS Rate Limit Wait")
+@Category({ "JMeter", "STS" })
+@Description("Wait for a token of the STS request-rate limiter")
+@StackTrace(false)
+public final class STSRateLimitEvent extends jdk.jfr.Event {
+
+    @Label("Limiter")
+    @Description("\"global\" or the file pattern from sts.rate.limit.files")
+    public String limiter;
+
+    @Label("File")
+    public String filename;
+
+    @Label("Rate (requests/s)")
+    public double rate;
+}
@@ -0,0 +1,57 @@
+package com.company.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * One STS operation (KEEP/DEL/ADDFIRST/ADDLAST), whichever way it was served:
+ * HTTP, prefetch buffer, write-behind queue or the in-process engine.
+ *
+ * Recorded only when enabled in the recording settings, e.g.
+ * {@code -XX:StartFlightRecording=settings=profile,filename=gen.jfr}.
+ */
+@Name("com.company.STSRequest")
+@Label("STS Request")
+@Category({ "JMeter", "STS" })
+@Description("One STS operation issued by a JMeter thread")
+@StackTrace(false)
+public final class STSRequestEvent extends jdk.jfr.Event {
+
+    @Label("File")
+    public String filename;
+
+    @Label("Action")
+    public String action;
+
+    @Label("Status")
+    @Description("STSResult status: OK, EMPTY_FILE, HTTP_ERROR, PARSE_ERROR, EXCEPTION, INVALID or CIRCUIT_OPEN")
+    public String status;
+
+    @Label("HTTP Status")
+    public int httpStatus;
+
+    @Label("STS Host")
+    public String host;
+
+    @Label("Bytes Received")
+    @DataAmount
+    public long bytes;
+
+    @Label("Bytes Sent")
+    @DataAmount
+    public long sentBytes;
+
+    @Label("Connect Time (ms)")
+    public long connectMillis;
+
+    @Label("Latency (ms)")
+    public long latencyMillis;
+
+    @Label("Wait Time (ms)")
+    @Description("Time a read spent waiting for a producer to add a row (sts.wait.enabled)")
+    public long waitMillis;
+}
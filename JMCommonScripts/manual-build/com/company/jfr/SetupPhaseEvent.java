@@ -0,0 +1,49 @@
+package com.company.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Duration of one global setup phase (template properties, directories,
+ * hostname, environment, git detection, STS preload).
+ *
+ * <pre>
+ *     SetupPhaseEvent phase = SetupPhaseEvent.start("git");
+ *     detectGitRepository(...);
+ *     phase.finish();
+ * </pre>
+ */
+@Name("com.company.SetupPhase")
+@Label("Setup Phase")
+@Category({ "JMeter", "Setup" })
+@Description("One phase of the DCU global setup")
+@StackTrace(false)
+public final class SetupPhaseEvent extends jdk.jfr.Event {
+
+    @Label("Phase")
+    public String phase;
+
+    /**
+     * Begin timing a phase. Costs next to nothing when the event is disabled.
+     */
+    public static SetupPhaseEvent start(String phase) {
+        SetupPhaseEvent event = new SetupPhaseEvent();
+        if (event.isEnabled()) {
+            event.phase = phase;
+            event.begin();
+        }
+        return event;
+    }
+
+    public void finish() {
+        if (isEnabled()) {
+            end();
+            if (shouldCommit()) {
+                commit();
+            }
+        }
+    }
+}
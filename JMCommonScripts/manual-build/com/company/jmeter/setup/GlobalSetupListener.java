@@ -1,5 +1,10 @@
 package com.company.jmeter.setup;
 
+import com.company.PacingScheduler;
+import com.company.PacingState;
+import com.company.STS;
+import com.company.STSLocalEngine;
+import com.company.jfr.SetupPhaseEvent;
 import org.apache.jmeter.testelement.TestStateListener;
 import org.apache.jmeter.util.JMeterUtils;
 import org.apache.jorphan.logging.LoggingManager;
@@ -38,8 +43,21 @@ public class GlobalSetupListener implements TestStateListener {
         Properties props = JMeterUtils.getJMeterProperties();
         Map<String,String> stubVars = new HashMap<>();   // no thread context yet
         GlobalSetupUtil.run(LOG, props, stubVars);
+
+        // DATA and IS_LOCAL_ENVIRONMENT are known now - load in-process STS files up front
+        if (STSLocalEngine.isActive(props)) {
+            SetupPhaseEvent phase = SetupPhaseEvent.start("sts-preload");
+            STSLocalEngine.preload(props);
+            phase.finish();
+        }
     }
 
-    @Override public void testEnded() { /* no-op */ }
-    @Override public void testEnded(String host) { /* no-op */ }
+    @Override public void testEnded() { testEnded("local"); }
+    @Override public void testEnded(String host) {
+        // Return buffered STS rows and close pooled connections between runs
+        STS.testEnded(JMeterUtils.getJMeterProperties());
+        // GroupInitUtil pacing waits on the shared scheduler too
+        PacingScheduler.logStats();
+        PacingState.clear();
+    }
 } 
\ No newline at end of file
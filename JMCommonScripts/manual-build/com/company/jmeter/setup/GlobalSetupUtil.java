@@ -1,5 +1,6 @@
 package com.company.jmeter.setup;
 
+import com.company.jfr.SetupPhaseEvent;
 import org.apache.jmeter.services.FileServer;
 import org.apache.log.Logger;
 
@@ -41,24 +42,33 @@ public final class GlobalSetupUtil {
 
         // Execute enabled features
         if (templateProcessing) {
+            SetupPhaseEvent phase = SetupPhaseEvent.start("template");
             processTemplateProperties(log, props, vars);
+            phase.finish();
         }
 
         String jmxDir = null;
         if (directorySetup) {
+            SetupPhaseEvent phase = SetupPhaseEvent.start("directory");
             jmxDir = determineJmxDir(log, props);
             saveVarsAsProps(log, props, vars, jmxDir, List.of("C_SCRIPTS", "P_SCRIPTS", "DATA"));
+            phase.finish();
         }
 
         if (hostnameDetection) {
+            SetupPhaseEvent phase = SetupPhaseEvent.start("hostname");
             detectHostname(log, props, vars);
+            phase.finish();
         }
 
         if (environmentDetection) {
+            SetupPhaseEvent phase = SetupPhaseEvent.start("environment");
             checkHost(log, props, vars);
+            phase.finish();
         }
 
         if (gitDetection) {
+            SetupPhaseEvent phase = SetupPhaseEvent.start("git");
             // Use determined jmxDir or fall back to getting it now
             if (jmxDir == null) {
                 jmxDir = FileServer.getFileServer().getBaseDir();
@@ -66,6 +76,7 @@ public final class GlobalSetupUtil {
                 if (jmxDir.endsWith("/.")) jmxDir = jmxDir.substring(0, jmxDir.length() - 2);
             }
             detectGitRepository(log, props, jmxDir);
+            phase.finish();
         }
 
         log.info("GlobalSetupUtil completed successfully");
@@ -1,5 +1,9 @@
 package com.company.jmeter.setup;
 
+import com.company.PacingSchedule;
+import com.company.PacingState;
+import com.company.PacingScheduler;
+import com.company.jfr.PacingWaitEvent;
 import org.apache.jmeter.threads.JMeterContext;
 import org.apache.jmeter.threads.JMeterVariables;
 import org.apache.log.Logger;
@@ -7,7 +11,6 @@ import org.apache.log.Logger;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
-import java.util.Random;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -30,30 +33,43 @@ public final class GroupInitUtil {
      * @param vars Thread-local JMeter variables
      * @param ctx  JMeterContext (to get thread info)
      * @param pacingParam Raw Parameters string from the JSR-223 element – may be
-     *                    fixed seconds or "min,max" range
+     *                    fixed seconds or "min,max" range; values may be fractional
+     *                    or carry a unit ("0.25", "250ms,400ms")
      */
     public static void applyPacing(Logger log, JMeterVariables vars, JMeterContext ctx, String pacingParam) {
+        int threadNum = ctx.getThreadNum();
+        PacingState state = PacingState.of(ctx.getThreadGroup(), threadNum);
         // Optional debug switch to skip the wait
         boolean debug = "on".equals(vars.get("debugSwitch"));
+        // Intended start of this iteration (nanoTime); -1 starts the schedule again from now
+        long intendedStart = -1;
+        // When the wait ended, or would have without an overrun; -1 for the intended start
+        long due = -1;
+
+        if (!state.isStarted()) {
+            PacingSchedule.sampleLastIteration(ctx, state);
+        }
 
         if (!debug) {
-            String prevStart   = vars.get("start_time");
-            String prevPacingS = vars.get("pacing");
-            if (prevStart != null && prevPacingS != null) {
-                long prevStartMillis  = Long.parseLong(prevStart);
-                double pacingSeconds  = Double.parseDouble(prevPacingS);
-                long pacingMillisPrev = (long) (pacingSeconds * 1000);
+            if (state.isStarted() && vars.get("pacing") != null) {
+                long pacingNanosPrev = state.getPacingNanos();
+
+                long now      = System.nanoTime();
+                long elapsed  = TimeUnit.NANOSECONDS.toMillis(now - state.getStartNanos());
 
-                long now      = System.currentTimeMillis();
-                long elapsed  = now - prevStartMillis;
-                long remaining = pacingMillisPrev - elapsed;
+                PacingSchedule.sampleIteration(ctx, state);
+                intendedStart  = state.getNextIntendedNanos();
+                long deadline  = state.getDeadlineNanos();
+                due            = deadline;
 
-                if (remaining > 0) {
-                    if (log != null) {
-                        log.info("Pacing – sleeping " + remaining + " ms (elapsed " + elapsed + " ms)");
+                PacingWaitEvent event = PacingWaitEvent.start();
+                if (deadline - now > 0) {
+                    if (log != null && log.isDebugEnabled()) {
+                        log.debug("Pacing – sleeping " + TimeUnit.NANOSECONDS.toMillis(deadline - now)
+                            + " ms (elapsed " + elapsed + " ms)");
                     }
                     try {
-                        TimeUnit.MILLISECONDS.sleep(remaining);
+                        PacingScheduler.awaitNanos(deadline, state.getSpinNanos());
                     } catch (InterruptedException ie) {
                         if (log != null) {
                             log.warn("Pacing sleep interrupted", ie);
@@ -61,10 +77,12 @@ public final class GroupInitUtil {
                         Thread.currentThread().interrupt();
                     }
                 } else {
-                    if (log != null) {
-                        log.info("Pacing – no wait needed (elapsed " + elapsed + " ms)");
+                    if (log != null && log.isDebugEnabled()) {
+                        log.debug("Pacing – no wait needed (elapsed " + elapsed + " ms)");
                     }
                 }
+                event.finish(ctx.getThreadGroup().getName(), threadNum, vars.getIteration(),
+                    TimeUnit.NANOSECONDS.toMillis(pacingNanosPrev), elapsed);
             }
         } else {
             if (log != null) {
@@ -74,31 +92,26 @@ public final class GroupInitUtil {
 
         /* --------- calculate pacing for *this* iteration ---------- */
         if (pacingParam != null && !pacingParam.isBlank()) {
-            int seconds;
-            if (pacingParam.contains(",")) {
-                String[] split = pacingParam.split(",", 2);
-                int min = Integer.parseInt(split[0].trim());
-                int max = Integer.parseInt(split[1].trim());
-                if (min > max) { int tmp = min; min = max; max = tmp; }
-                seconds = min + new Random().nextInt(max - min + 1);
-            } else {
-                seconds = Integer.parseInt(pacingParam.trim());
-            }
-            vars.put("pacing", String.valueOf(seconds));
+            state.choosePacing(pacingParam);
+            vars.put("pacing", state.getPacingSeconds());
         }
 
         /* ------- store start time & debug message for this loop ----- */
+        long startNanos  = System.nanoTime();
         long startMillis = System.currentTimeMillis();
+        long intended    = intendedStart >= 0 ? intendedStart : startNanos;
         vars.put("start_time", String.valueOf(startMillis));
+        state.start(startNanos, intended, due >= 0 ? due : intended);
+        PacingSchedule.started(vars, intended, startNanos, startMillis);
 
-        int threadNum    = ctx.getThreadNum();
-        String tgName    = ctx.getThreadGroup().getName();
-        int iterationNum = vars.getIteration();
-        String hostname  = vars.get("hostname");
-
-        vars.put("debug_msg", String.format("H:%s:G%s:T%d:I%d", hostname, tgName, threadNum, iterationNum));
-        if (log != null) {
+        String debugPrefix = state.getDebugPrefix();
+        if (debugPrefix == null) {
+            debugPrefix = "H:" + vars.get("hostname") + ":G" + ctx.getThreadGroup().getName() + ":T" + threadNum + ":I";
+            state.setDebugPrefix(debugPrefix);
+        }
+        vars.put("debug_msg", debugPrefix + vars.getIteration());
+        if (log != null && log.isDebugEnabled()) {
             log.debug("Start time recorded: " + LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")));
         }
     }
-} 
\ No newline at end of file
+}
@@ -0,0 +1,59 @@
+package com.company.server;
+
+import com.company.STSEdgeTable;
+import com.company.STSPrefetchBuffer;
+import com.company.STSWriteBehind;
+
+import java.util.Properties;
+
+/**
+ * Generator-local STS edge: an {@link STSServer} whose table leases rows from
+ * a central STS in blocks ({@link STSEdgeTable}). Run it on each load
+ * generator at the address global setup assigns to {@code V_STS_LOCAL_HOST},
+ * so JMeter threads talk to the local edge and the central server sees one
+ * request per block instead of one per row.
+ *
+ * Needs the JMeter libraries (HTTP client, logging) on the classpath:
+ * <pre>
+ *     java -Dsts.edge.upstream=sts.central:9191 -Dsts.edge.port=9191 \
+ *          -Dsts.edge.block.size=500 -Dsts.edge.low.watermark=100 \
+ *          -cp "lib/ext/dcu-sts-utils.jar:lib/*" com.company.server.STSEdgeServer
+ * </pre>
+ *
+ * Any other {@code sts.*} client property (write-behind batch size, pool,
+ * timeouts, circuit breaker) can be passed the same way.
+ */
+public final class STSEdgeServer {
+
+    private STSEdgeServer() {}
+
+    public static void main(String[] args) throws Exception {
+        String upstream = System.getProperty("sts.edge.upstream");
+        if (upstream == null || upstream.trim().isEmpty()) {
+            System.err.println("sts.edge.upstream (central STS host:port) is required");
+            System.exit(2);
+        }
+        int port = Integer.parseInt(System.getProperty("sts.edge.port", "9191"));
+        int loops = Integer.parseInt(System.getProperty("sts.edge.loops",
+            String.valueOf(Runtime.getRuntime().availableProcessors())));
+        // Table calls can wait on the central server: they run on workers, never on the loops
+        int threads = Integer.parseInt(System.getProperty("sts.edge.threads",
+            String.valueOf(Runtime.getRuntime().availableProcessors() * 4)));
+
+        Properties props = new Properties();
+        props.putAll(System.getProperties());
+        props.setProperty(STSPrefetchBuffer.PREFETCH_HIGH_WATERMARK, System.getProperty("sts.edge.block.size", "500"));
+        props.setProperty(STSPrefetchBuffer.PREFETCH_LOW_WATERMARK, System.getProperty("sts.edge.low.watermark", "100"));
+        props.setProperty(STSWriteBehind.WRITEBEHIND_ENABLED, "true");
+
+        STSEdgeTable table = new STSEdgeTable(props, upstream.trim());
+        STSServer server = new STSServer(port, table, loops, threads);
+        server.start();
+        System.out.println("STS edge listening on port " + server.getPort() + ", leasing from " + upstream.trim()
+            + " in blocks of " + props.getProperty(STSPrefetchBuffer.PREFETCH_HIGH_WATERMARK));
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop();
+            table.close();
+        }));
+    }
+}
@@ -0,0 +1,610 @@
+package com.company.server;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lightweight Simple Table Server compatible with the endpoints used by
+ * {@code com.company.STS}: READ, READMULTI, ADD, INITFILE, LENGTH and SAVE.
+ *
+ * Built on non-blocking I/O: one acceptor thread hands connections round-robin
+ * to a fixed set of event loops, each with its own Selector. Requests are
+ * handled on the loop that read them; table operations only lock the file
+ * they touch (see {@link STSStore}), so different files never contend.
+ * A table whose operations can block (one that calls another server) is given
+ * worker threads instead: the loop hands each request to a worker and writes
+ * the response once the worker passes it back, taking the connection's next
+ * pipelined request only then, so responses keep their order.
+ * Connections are kept alive for HTTP/1.1 clients.
+ *
+ * Run from the plugin jar:
+ * <pre>
+ *     java -cp dcu-sts-utils.jar com.company.server.STSServer
+ *          -Dsts.server.port=9191 -Dsts.server.datasetDirectory=/data
+ *          -Dsts.server.threads=4 -Dsts.server.initFiles=users.csv,orders.csv
+ * </pre>
+ */
+public final class STSServer {
+
+    private static final int MAX_REQUEST_BYTES = 1024 * 1024;
+    private static final byte[] HEADER_END = { '\r', '\n', '\r', '\n' };
+
+    private final int port;
+    private final STSTable store;
+    private final EventLoop[] loops;
+    private final int workerThreads;
+    private ExecutorService workers;
+    private ServerSocketChannel serverChannel;
+    private Selector acceptSelector;
+    private Thread acceptThread;
+    private volatile boolean running;
+
+    public STSServer(int port, Path datasetDirectory, int threads) {
+        this(port, new STSStore(datasetDirectory.toAbsolutePath().normalize()), threads);
+    }
+
+    /**
+     * Serve the STS endpoints from any table implementation
+     */
+    public STSServer(int port, STSTable table, int threads) {
+        this(port, table, threads, 0);
+    }
+
+    /**
+     * Serve the STS endpoints from a table whose operations may block
+     *
+     * @param workerThreads threads running table operations off the event loops;
+     *                      0 runs them on the loops
+     */
+    public STSServer(int port, STSTable table, int threads, int workerThreads) {
+        this.port = port;
+        this.store = table;
+        this.loops = new EventLoop[Math.max(1, threads)];
+        this.workerThreads = Math.max(0, workerThreads);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int port = Integer.parseInt(System.getProperty("sts.server.port", "9191"));
+        Path dataset = Paths.get(System.getProperty("sts.server.datasetDirectory", "."));
+        int threads = Integer.parseInt(System.getProperty("sts.server.threads",
+            String.valueOf(Runtime.getRuntime().availableProcessors())));
+
+        STSServer server = new STSServer(port, dataset, threads);
+        for (String file : System.getProperty("sts.server.initFiles", "").split(",")) {
+            if (!file.trim().isEmpty()) {
+                System.out.println("INITFILE " + file.trim() + ": " + server.initFile(file.trim()) + " lines");
+            }
+        }
+        server.start();
+        System.out.println("STS server listening on port " + server.getPort() + " with " + threads
+            + " event loops, dataset directory " + dataset.toAbsolutePath());
+        Runtime.getRuntime().addShutdownHook(new Thread(server::stop));
+    }
+
+    /**
+     * Load a file from the dataset directory before (or while) serving
+     */
+    public int initFile(String filename) throws IOException {
+        return store.initFile(filename);
+    }
+
+    public synchronized void start() throws IOException {
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port), 1024);
+        serverChannel.configureBlocking(false);
+        acceptSelector = Selector.open();
+        serverChannel.register(acceptSelector, SelectionKey.OP_ACCEPT);
+
+        running = true;
+        if (workerThreads > 0) {
+            AtomicInteger count = new AtomicInteger();
+            workers = Executors.newFixedThreadPool(workerThreads, r -> {
+                Thread t = new Thread(r, "STS-server-worker-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new EventLoop("STS-server-loop-" + (i + 1));
+            loops[i].start();
+        }
+        acceptThread = new Thread(this::acceptLoop, "STS-server-accept");
+        acceptThread.start();
+    }
+
+    public synchronized void stop() {
+        running = false;
+        if (acceptSelector != null) {
+            acceptSelector.wakeup();
+        }
+        for (EventLoop loop : loops) {
+            if (loop != null) {
+                loop.selector.wakeup();
+            }
+        }
+        try {
+            if (acceptThread != null) {
+                acceptThread.join(5000);
+            }
+            for (EventLoop loop : loops) {
+                if (loop != null) {
+                    loop.join(5000);
+                }
+            }
+            if (workers != null) {
+                workers.shutdownNow();
+            }
+            if (serverChannel != null) {
+                serverChannel.close();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            System.err.println("Error closing STS server: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Bound port (useful when started with port 0)
+     */
+    public int getPort() {
+        try {
+            return ((InetSocketAddress) serverChannel.getLocalAddress()).getPort();
+        } catch (IOException e) {
+            return port;
+        }
+    }
+
+    private void acceptLoop() {
+        int next = 0;
+        try {
+            while (running) {
+                acceptSelector.select();
+                acceptSelector.selectedKeys().clear();
+                SocketChannel channel;
+                while ((channel = serverChannel.accept()) != null) {
+                    channel.configureBlocking(false);
+                    channel.socket().setTcpNoDelay(true);
+                    loops[next].register(channel);
+                    next = (next + 1) % loops.length;
+                }
+            }
+        } catch (IOException e) {
+            if (running) {
+                System.err.println("STS server accept loop failed: " + e.getMessage());
+            }
+        } finally {
+            try {
+                acceptSelector.close();
+            } catch (IOException ignored) {
+                // closing anyway
+            }
+        }
+    }
+
+    /* ------------------------------------------------------------------ */
+
+    private final class EventLoop extends Thread {
+        final Selector selector;
+        private final Queue<SocketChannel> pending = new ConcurrentLinkedQueue<>();
+        /** Work handed back by the table workers */
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(64 * 1024);
+
+        EventLoop(String name) throws IOException {
+            super(name);
+            selector = Selector.open();
+        }
+
+        void register(SocketChannel channel) {
+            pending.add(channel);
+            selector.wakeup();
+        }
+
+        /**
+         * Run on this loop's thread
+         */
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    selector.select();
+                    SocketChannel channel;
+                    while ((channel = pending.poll()) != null) {
+                        channel.register(selector, SelectionKey.OP_READ, new Connection(channel, this));
+                    }
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) {
+                        task.run();
+                    }
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        Connection connection = (Connection) key.attachment();
+                        try {
+                            if (key.isValid() && key.isReadable()) {
+                                connection.onReadable(key, readBuffer);
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                connection.onWritable(key);
+                            }
+                        } catch (IOException | RuntimeException e) {
+                            connection.close(key);
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                System.err.println(getName() + " failed: " + e.getMessage());
+            } finally {
+                for (SelectionKey key : selector.keys()) {
+                    try {
+                        key.channel().close();
+                    } catch (IOException ignored) {
+                        // closing anyway
+                    }
+                }
+                try {
+                    selector.close();
+                } catch (IOException ignored) {
+                    // closing anyway
+                }
+            }
+        }
+    }
+
+    /**
+     * Per-connection request parser and response queue
+     */
+    private final class Connection {
+        private final SocketChannel channel;
+        private final EventLoop loop;
+        private ByteBuffer input = ByteBuffer.allocate(4096);
+        private final ArrayDeque<ByteBuffer> output = new ArrayDeque<>();
+        private boolean closeAfterWrite;
+        /** A request is with the table workers; later pipelined requests wait for it */
+        private boolean handling;
+
+        Connection(SocketChannel channel, EventLoop loop) {
+            this.channel = channel;
+            this.loop = loop;
+        }
+
+        void onReadable(SelectionKey key, ByteBuffer readBuffer) throws IOException {
+            readBuffer.clear();
+            int read = channel.read(readBuffer);
+            if (read < 0) {
+                close(key);
+                return;
+            }
+            readBuffer.flip();
+            append(readBuffer);
+            process(key);
+        }
+
+        /**
+         * Handle every complete (possibly pipelined) request in the buffer, or
+         * hand the next one to a worker
+         */
+        private void process(SelectionKey key) throws IOException {
+            Request request;
+            while (!handling && !closeAfterWrite && (request = parse()) != null) {
+                if (workers == null) {
+                    respond(request, handle(request));
+                } else {
+                    handling = true;
+                    dispatch(key, request);
+                }
+            }
+            flush(key);
+        }
+
+        private void dispatch(SelectionKey key, Request request) {
+            try {
+                workers.execute(() -> {
+                    String[] result;
+                    try {
+                        result = handle(request);
+                    } catch (RuntimeException e) {
+                        result = null;
+                    }
+                    String[] response = result;
+                    loop.execute(() -> completed(key, request, response));
+                });
+            } catch (RejectedExecutionException e) {
+                // Server stopping
+                close(key);
+            }
+        }
+
+        /**
+         * A worker's response, back on the loop thread
+         */
+        private void completed(SelectionKey key, Request request, String[] result) {
+            handling = false;
+            if (!key.isValid()) {
+                return;
+            }
+            if (result == null) {
+                close(key);
+                return;
+            }
+            try {
+                respond(request, result);
+                process(key);
+            } catch (IOException | RuntimeException e) {
+                close(key);
+            }
+        }
+
+        void onWritable(SelectionKey key) throws IOException {
+            flush(key);
+        }
+
+        void close(SelectionKey key) {
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+                // already closing
+            }
+        }
+
+        private void append(ByteBuffer data) throws IOException {
+            if (input.remaining() < data.remaining()) {
+                int needed = input.position() + data.remaining();
+                if (needed > MAX_REQUEST_BYTES) {
+                    throw new IOException("Request too large");
+                }
+                ByteBuffer grown = ByteBuffer.allocate(Math.max(needed, input.capacity() * 2));
+                input.flip();
+                grown.put(input);
+                input = grown;
+            }
+            input.put(data);
+        }
+
+        private Request parse() {
+            byte[] buf = input.array();
+            int limit = input.position();
+            int headerEnd = indexOf(buf, limit, HEADER_END);
+            if (headerEnd < 0) {
+                return null;
+            }
+            String head = new String(buf, 0, headerEnd, StandardCharsets.ISO_8859_1);
+            String[] lines = head.split("\r\n");
+            String[] requestLine = lines[0].split(" ");
+            if (requestLine.length < 3) {
+                closeAfterWrite = true;
+                return new Request("BAD", "", "HTTP/1.0", new HashMap<>(), true);
+            }
+
+            int contentLength = 0;
+            String connectionHeader = null;
+            for (int i = 1; i < lines.length; i++) {
+                int colon = lines[i].indexOf(':');
+                if (colon <= 0) {
+                    continue;
+                }
+                String name = lines[i].substring(0, colon).trim();
+                String value = lines[i].substring(colon + 1).trim();
+                if ("Content-Length".equalsIgnoreCase(name)) {
+                    contentLength = Integer.parseInt(value);
+                } else if ("Connection".equalsIgnoreCase(name)) {
+                    connectionHeader = value;
+                }
+            }
+            int bodyStart = headerEnd + HEADER_END.length;
+            if (limit - bodyStart < contentLength) {
+                return null; // wait for the rest of the body
+            }
+
+            String target = requestLine[1];
+            Map<String, String> params = new HashMap<>();
+            int query = target.indexOf('?');
+            String path = query < 0 ? target : target.substring(0, query);
+            if (query >= 0) {
+                decodeParams(target.substring(query + 1), params);
+            }
+            if (contentLength > 0) {
+                decodeParams(new String(buf, bodyStart, contentLength, StandardCharsets.ISO_8859_1), params);
+            }
+
+            // Compact: keep any pipelined bytes that follow this request
+            int consumed = bodyStart + contentLength;
+            input.flip();
+            input.position(consumed);
+            input.compact();
+
+            String version = requestLine[2];
+            boolean close = "close".equalsIgnoreCase(connectionHeader)
+                || ("HTTP/1.0".equals(version) && !"keep-alive".equalsIgnoreCase(connectionHeader));
+            return new Request(requestLine[0], path, version, params, close);
+        }
+
+        private void respond(Request request, String[] result) {
+            byte[] body = result[1].getBytes(StandardCharsets.UTF_8);
+            String headers = request.version + " " + result[0] + "\r\n"
+                + "Content-Type: text/html; charset=UTF-8\r\n"
+                + "Content-Length: " + body.length + "\r\n"
+                + (request.close ? "Connection: close\r\n" : "Connection: keep-alive\r\n")
+                + "\r\n";
+            ByteBuffer response = ByteBuffer.allocate(headers.length() + body.length);
+            response.put(headers.getBytes(StandardCharsets.ISO_8859_1)).put(body).flip();
+            output.add(response);
+            if (request.close) {
+                closeAfterWrite = true;
+            }
+        }
+
+        private void flush(SelectionKey key) throws IOException {
+            while (!output.isEmpty()) {
+                ByteBuffer head = output.peek();
+                channel.write(head);
+                if (head.hasRemaining()) {
+                    key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    return;
+                }
+                output.poll();
+            }
+            if (closeAfterWrite && !handling) {
+                close(key);
+            } else if (key.isValid()) {
+                key.interestOps(SelectionKey.OP_READ);
+            }
+        }
+    }
+
+    /* ------------------------------------------------------------------ */
+
+    /**
+     * Execute one STS command
+     *
+     * @return HTTP status line suffix and HTML body
+     */
+    private String[] handle(Request request) {
+        Map<String, String> p = request.params;
+        String filename = p.getOrDefault("FILENAME", "");
+        try {
+            switch (request.path) {
+                case "/sts/READ":
+                case "/sts/READMULTI": {
+                    int count = "/sts/READ".equals(request.path) ? 1 : parseInt(p.get("NB_LINES"), 1);
+                    String mode = p.getOrDefault("READ_MODE", "FIRST").toUpperCase();
+                    boolean keep = !"FALSE".equalsIgnoreCase(p.getOrDefault("KEEP", "TRUE"));
+                    List<String> lines = store.read(filename, mode, keep, count);
+                    if (lines == null) {
+                        int length = store.length(filename);
+                        if (length < 0) {
+                            return ko("Error : " + filename + " not loaded yet !");
+                        }
+                        return count == 1 || length == 0
+                            ? ko("Error : No more line !")
+                            : ko("Error : Number lines to read greater than file size, " + count + " greater than " + length + " !");
+                    }
+                    return ok(String.join("\n", lines));
+                }
+                case "/sts/ADD": {
+                    String line = p.get("LINE");
+                    if (line == null || filename.isEmpty()) {
+                        return ko("Error : FILENAME and LINE are required !");
+                    }
+                    String mode = p.getOrDefault("ADD_MODE", "LAST").toUpperCase();
+                    boolean unique = "TRUE".equalsIgnoreCase(p.getOrDefault("UNIQUE", "FALSE"));
+                    return store.add(filename, mode, line, unique) ? ok("") : ko("Error : Line already exists !");
+                }
+                case "/sts/INITFILE":
+                    return ok(String.valueOf(store.initFile(filename)));
+                case "/sts/LENGTH": {
+                    int length = store.length(filename);
+                    return length < 0 ? ko("Error : " + filename + " not loaded yet !") : ok(String.valueOf(length));
+                }
+                case "/sts/SAVE": {
+                    int saved = store.save(filename);
+                    return saved < 0 ? ko("Error : " + filename + " not loaded yet !") : ok(String.valueOf(saved));
+                }
+                default:
+                    return new String[] { "404 Not Found", page("KO", "Error : unknown command " + request.path + " !") };
+            }
+        } catch (STSTable.UnavailableException e) {
+            return new String[] { "502 Bad Gateway", page("KO", "Error : " + e.getMessage()) };
+        } catch (IOException e) {
+            return ko("Error : " + e.getMessage());
+        }
+    }
+
+    private static String[] ok(String body) {
+        return new String[] { "200 OK", page("OK", body) };
+    }
+
+    private static String[] ko(String body) {
+        return new String[] { "200 OK", page("KO", body) };
+    }
+
+    private static String page(String title, String body) {
+        return "<html><title>" + title + "</title>\n<body>" + body + "</body>\n</html>";
+    }
+
+    private static int parseInt(String value, int defaultValue) {
+        try {
+            return value == null ? defaultValue : Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    private static void decodeParams(String query, Map<String, String> params) {
+        for (String pair : query.split("&")) {
+            if (pair.isEmpty()) {
+                continue;
+            }
+            int eq = pair.indexOf('=');
+            String name = eq < 0 ? pair : pair.substring(0, eq);
+            String value = eq < 0 ? "" : pair.substring(eq + 1);
+            params.put(urlDecode(name), urlDecode(value));
+        }
+    }
+
+    private static String urlDecode(String value) {
+        try {
+            return URLDecoder.decode(value, "UTF-8");
+        } catch (UnsupportedEncodingException | IllegalArgumentException e) {
+            return value;
+        }
+    }
+
+    private static int indexOf(byte[] buf, int limit, byte[] pattern) {
+        outer:
+        for (int i = 0; i <= limit - pattern.length; i++) {
+            for (int j = 0; j < pattern.length; j++) {
+                if (buf[i + j] != pattern[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    private static final class Request {
+        final String method;
+        final String path;
+        final String version;
+        final Map<String, String> params;
+        final boolean close;
+
+        Request(String method, String path, String version, Map<String, String> params, boolean close) {
+            this.method = method;
+            this.path = path;
+            this.version = version;
+            this.params = params;
+            this.close = close;
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package com.company.server;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * In-memory table store behind {@link STSServer}.
+ *
+ * Each file is its own deque guarded by its own lock, so requests for
+ * different files never contend; only requests for the same file serialise.
+ */
+final class STSStore implements STSTable {
+
+    private final Path datasetDirectory;
+    private final Map<String, LineFile> files = new ConcurrentHashMap<>();
+
+    STSStore(Path datasetDirectory) {
+        this.datasetDirectory = datasetDirectory;
+    }
+
+    /**
+     * Load (or reload) a file from the dataset directory
+     *
+     * @return number of lines loaded
+     */
+    @Override
+    public int initFile(String filename) throws IOException {
+        List<String> lines = new ArrayList<>();
+        for (String line : Files.readAllLines(resolve(filename), StandardCharsets.UTF_8)) {
+            if (!line.isEmpty()) {
+                lines.add(line);
+            }
+        }
+        LineFile file = file(filename);
+        file.lock.lock();
+        try {
+            file.lines.clear();
+            file.lines.addAll(lines);
+            return file.lines.size();
+        } finally {
+            file.lock.unlock();
+        }
+    }
+
+    /**
+     * Read lines from a file.
+     *
+     * @param mode FIRST, LAST or RANDOM
+     * @param keep true to keep the lines in rotation (moved to the tail)
+     * @return the lines read, or null if the file holds fewer than {@code count}
+     */
+    @Override
+    public List<String> read(String filename, String mode, boolean keep, int count) {
+        LineFile file = files.get(filename);
+        if (file == null) {
+            return null;
+        }
+        file.lock.lock();
+        try {
+            ArrayDeque<String> lines = file.lines;
+            if (lines.size() < count || count <= 0) {
+                return null;
+            }
+            List<String> result = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                String line;
+                if ("LAST".equals(mode)) {
+                    line = lines.pollLast();
+                } else if ("RANDOM".equals(mode)) {
+                    line = removeAt(lines, ThreadLocalRandom.current().nextInt(lines.size()));
+                } else {
+                    line = lines.pollFirst();
+                }
+                result.add(line);
+            }
+            if (keep) {
+                lines.addAll(result);
+            }
+            return result;
+        } finally {
+            file.lock.unlock();
+        }
+    }
+
+    /**
+     * Add a line at the head ("FIRST") or tail ("LAST") of a file
+     *
+     * @return false if {@code unique} is set and the line is already present
+     */
+    @Override
+    public boolean add(String filename, String mode, String line, boolean unique) {
+        LineFile file = file(filename);
+        file.lock.lock();
+        try {
+            if (unique && file.lines.contains(line)) {
+                return false;
+            }
+            if ("FIRST".equals(mode)) {
+                file.lines.addFirst(line);
+            } else {
+                file.lines.addLast(line);
+            }
+            return true;
+        } finally {
+            file.lock.unlock();
+        }
+    }
+
+    /**
+     * Number of lines in a file, or -1 if the file is not loaded
+     */
+    @Override
+    public int length(String filename) {
+        LineFile file = files.get(filename);
+        if (file == null) {
+            return -1;
+        }
+        file.lock.lock();
+        try {
+            return file.lines.size();
+        } finally {
+            file.lock.unlock();
+        }
+    }
+
+    /**
+     * Write the current content of a file back to the dataset directory
+     *
+     * @return number of lines written, or -1 if the file is not loaded
+     */
+    @Override
+    public int save(String filename) throws IOException {
+        LineFile file = files.get(filename);
+        if (file == null) {
+            return -1;
+        }
+        List<String> snapshot;
+        file.lock.lock();
+        try {
+            snapshot = new ArrayList<>(file.lines);
+        } finally {
+            file.lock.unlock();
+        }
+        try (BufferedWriter writer = Files.newBufferedWriter(resolve(filename), StandardCharsets.UTF_8)) {
+            for (String line : snapshot) {
+                writer.write(line);
+                writer.newLine();
+            }
+        }
+        return snapshot.size();
+    }
+
+    private LineFile file(String filename) {
+        return files.computeIfAbsent(filename, k -> new LineFile());
+    }
+
+    private Path resolve(String filename) throws IOException {
+        Path path = datasetDirectory.resolve(filename).normalize();
+        if (!path.startsWith(datasetDirectory) || filename.isEmpty()) {
+            throw new IOException("Invalid filename: " + filename);
+        }
+        return path;
+    }
+
+    private static String removeAt(ArrayDeque<String> lines, int index) {
+        Iterator<String> it = lines.iterator();
+        for (int i = 0; i < index; i++) {
+            it.next();
+        }
+        String line = it.next();
+        it.remove();
+        return line;
+    }
+
+    private static final class LineFile {
+        final ReentrantLock lock = new ReentrantLock();
+        final ArrayDeque<String> lines = new ArrayDeque<>();
+    }
+}
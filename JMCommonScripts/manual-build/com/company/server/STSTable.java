@@ -0,0 +1,56 @@
+package com.company.server;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Table operations behind {@link STSServer}: the in-memory {@link STSStore},
+ * or a store that fronts another STS (see {@code com.company.STSEdgeTable}).
+ */
+public interface STSTable {
+
+    /**
+     * Read lines from a file.
+     *
+     * @param mode FIRST, LAST or RANDOM
+     * @param keep true to keep the lines in rotation
+     * @return the lines read, or null if the file holds fewer than {@code count}
+     */
+    List<String> read(String filename, String mode, boolean keep, int count) throws IOException;
+
+    /**
+     * Add a line at the head ("FIRST") or tail ("LAST") of a file
+     *
+     * @return false if {@code unique} is set and the line is already present
+     */
+    boolean add(String filename, String mode, String line, boolean unique) throws IOException;
+
+    /**
+     * Load (or reload) a file, returning the number of lines loaded
+     */
+    int initFile(String filename) throws IOException;
+
+    /**
+     * Number of lines in a file, or -1 if the file is not loaded
+     */
+    int length(String filename) throws IOException;
+
+    /**
+     * Write a file back to its dataset directory, returning the number of
+     * lines written, or -1 if the file is not loaded
+     */
+    int save(String filename) throws IOException;
+
+    /**
+     * The store behind this table could not be reached; answered with 502 so
+     * clients treat it as a server error rather than a KO row
+     */
+    final class UnavailableException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        public UnavailableException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+}